@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2012, Codename One and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Codename One designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Codename One through http://www.codenameone.com/ if you
+ * need additional information or have any questions.
+ */
+
+package com.codename1.components;
+
+import java.util.Random;
+
+/**
+ * Synthetic tree for the benchmarks.
+ * The tree is a full tree with the given depth where every Split holds
+ * fanOut panes separated by Dividers, and the orientation alternates on
+ * every level. A tree of depth d has fanOut^d leaves.
+ * The tree supplies the sizes of its Nodes to the engine and receives the
+ * computed bounds the same way the MultiSplitLayout does for Components.
+ */
+final class MultiSplitBenchmarkTree implements MultiSplitLayoutEngine.SizeProvider, MultiSplitLayoutEngine.BoundsSink {
+    static final int WIDTH = 4096;
+    static final int HEIGHT = 4096;
+
+    final MultiSplitLayoutEngine engine;
+    private final int[] preferredWidth;
+    private final int[] preferredHeight;
+    private final double[] weight;
+    private int checksum;
+
+    /**
+     * Parses a "depth:fanOut" shape and builds the matching tree.
+     *
+     * @param shape the shape of the tree, e.g. "3:10" for 1000 leaves.
+     */
+    MultiSplitBenchmarkTree(String shape) {
+        this(Integer.parseInt(shape.substring(0, shape.indexOf(':'))), Integer.parseInt(shape.substring(shape.indexOf(':') + 1)));
+    }
+
+    /**
+     * Builds a full tree of the given depth and fan-out.
+     *
+     * @param depth  the number of Split levels, at least 1.
+     * @param fanOut the number of panes in every Split, at least 2.
+     */
+    MultiSplitBenchmarkTree(int depth, int fanOut) {
+        if (depth < 1 || fanOut < 2) {
+            throw new IllegalArgumentException("Invalid tree shape " + depth + ":" + fanOut);
+        }
+        int splits = 0;
+        for (int level = 0, count = 1; level < depth; level++, count *= fanOut) {
+            splits += count;
+        }
+        int capacity = 1 + splits * (2 * fanOut - 1);
+        engine = new MultiSplitLayoutEngine(capacity);
+        preferredWidth = new int[capacity];
+        preferredHeight = new int[capacity];
+        weight = new double[capacity];
+        Random random = new Random(42);
+        int[] levels = new int[capacity];
+        engine.add(-1, MultiSplitLayoutEngine.SPLIT, true, 0);
+        for (int node = 0; node < engine.size(); node++) {
+            if (engine.getKind(node) != MultiSplitLayoutEngine.SPLIT) {
+                continue;
+            }
+            boolean childRow = !engine.isRowSplit(node);
+            for (int i = 0; i < fanOut; i++) {
+                if (i > 0) {
+                    int divider = engine.add(node, MultiSplitLayoutEngine.DIVIDER, false, 0);
+                    preferredWidth[divider] = 8;
+                    preferredHeight[divider] = 8;
+                }
+                int pane;
+                if (levels[node] + 1 < depth) {
+                    pane = engine.add(node, MultiSplitLayoutEngine.SPLIT, childRow, 0);
+                    levels[pane] = levels[node] + 1;
+                } else {
+                    pane = engine.add(node, MultiSplitLayoutEngine.LEAF, false, 0);
+                    preferredWidth[pane] = 20 + random.nextInt(100);
+                    preferredHeight[pane] = 20 + random.nextInt(100);
+                }
+                weight[pane] = 1.0 / fanOut;
+            }
+        }
+    }
+
+    /**
+     * Measures the tree and lays it out by preferred sizes and weights.
+     */
+    void layout() {
+        engine.measure(this);
+        engine.layout(0, 0, WIDTH, HEIGHT, false);
+        engine.apply(this);
+    }
+
+    /**
+     * @return the index of the first Divider of the root Split.
+     */
+    int rootDivider() {
+        return engine.getFirstChild(0) + 1;
+    }
+
+    /**
+     * @return the index of the last Divider of the deepest Split.
+     */
+    int deepestDivider() {
+        for (int node = engine.size() - 1; node >= 0; node--) {
+            if (engine.getKind(node) == MultiSplitLayoutEngine.DIVIDER) {
+                return node;
+            }
+        }
+        throw new IllegalStateException("No divider in the tree");
+    }
+
+    /**
+     * @param divider the index of a Divider.
+     * @return the position of the Divider along the axis of its Split.
+     */
+    int position(int divider) {
+        return engine.isRowSplit(engine.getParent(divider)) ? engine.getX(divider) : engine.getY(divider);
+    }
+
+    /**
+     * @return a value that depends on all the bounds received so far.
+     */
+    int getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public int getPreferredWidth(int node) {
+        return preferredWidth[node];
+    }
+
+    @Override
+    public int getPreferredHeight(int node) {
+        return preferredHeight[node];
+    }
+
+    @Override
+    public double getWeight(int node) {
+        return weight[node];
+    }
+
+    @Override
+    public int getMinimumSize(int node) {
+        return 0;
+    }
+
+    @Override
+    public int getMaximumSize(int node) {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void setBounds(int node, int x, int y, int width, int height) {
+        checksum += x + y + width + height;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2012, Codename One and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Codename One designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Codename One through http://www.codenameone.com/ if you
+ * need additional information or have any questions.
+ */
+
+package com.codename1.components;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sequences of simulated pointerDragged events in continuous drag
+ * mode: every event moves the divider, lays out its two siblings and pushes
+ * their bounds out.
+ * The score is in drag events per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiSplitDragBenchmark {
+    private static final int EVENTS = 64;
+
+    /**
+     * The tree shape as "depth:fanOut", from 3 to 10,000 leaves.
+     */
+    @Param({"1:3", "2:10", "3:10", "4:10"})
+    public String shape;
+
+    private MultiSplitBenchmarkTree tree;
+    private MultiSplitLayoutEngine engine;
+    private int rootDivider;
+    private int rootStart;
+    private int deepestDivider;
+    private int deepestStart;
+    private final int[] offsets = new int[EVENTS];
+
+    @Setup
+    public void setup() {
+        tree = new MultiSplitBenchmarkTree(shape);
+        tree.layout();
+        engine = tree.engine;
+        rootDivider = tree.rootDivider();
+        rootStart = tree.position(rootDivider);
+        deepestDivider = tree.deepestDivider();
+        deepestStart = tree.position(deepestDivider);
+        // a finger moving back and forth, 2px per event.
+        for (int i = 0; i < EVENTS; i++) {
+            offsets[i] = 2 * (i < EVENTS / 2 ? i : EVENTS - i);
+        }
+    }
+
+    /**
+     * Dragging the first divider of the root, which resizes the largest subtrees.
+     */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public int pointerDraggedRootDivider() {
+        return drag(rootDivider, rootStart);
+    }
+
+    /**
+     * Dragging a divider of the deepest Split, which resizes two leaves.
+     */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public int pointerDraggedDeepestDivider() {
+        return drag(deepestDivider, deepestStart);
+    }
+
+    private int drag(int divider, int start) {
+        for (int i = 0; i < EVENTS; i++) {
+            engine.moveDivider(divider, start + offsets[i]);
+            engine.layoutDividerSiblings(divider);
+            engine.apply(tree);
+        }
+        return tree.getChecksum();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012, Codename One and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Codename One designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Codename One through http://www.codenameone.com/ if you
+ * need additional information or have any questions.
+ */
+
+package com.codename1.components;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the layout engine work behind MultiSplitLayout.layoutContainer,
+ * MultiSplitLayout.getPreferredSize and the divider hit-testing of
+ * MultiSplitPane.pointerPressed on synthetic trees.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiSplitLayoutBenchmark {
+    private static final int POINTS = 1024;
+
+    /**
+     * The tree shape as "depth:fanOut", from 3 to 10,000 leaves.
+     */
+    @Param({"1:3", "2:10", "3:10", "4:10"})
+    public String shape;
+
+    private MultiSplitBenchmarkTree tree;
+    private MultiSplitLayoutEngine engine;
+    private final int[] pointsX = new int[POINTS];
+    private final int[] pointsY = new int[POINTS];
+    private int point;
+
+    @Setup
+    public void setup() {
+        tree = new MultiSplitBenchmarkTree(shape);
+        tree.layout();
+        engine = tree.engine;
+        Random random = new Random(7);
+        for (int i = 0; i < POINTS; i++) {
+            pointsX[i] = random.nextInt(MultiSplitBenchmarkTree.WIDTH);
+            pointsY[i] = random.nextInt(MultiSplitBenchmarkTree.HEIGHT);
+        }
+    }
+
+    /**
+     * A full layout by preferred sizes and weights, as done before any divider is dragged.
+     */
+    @Benchmark
+    public int layoutContainer() {
+        tree.layout();
+        return tree.getChecksum();
+    }
+
+    /**
+     * A full layout by the divider positions, as done after a divider has been dragged.
+     */
+    @Benchmark
+    public int layoutContainerFloating() {
+        engine.layout(0, 0, MultiSplitBenchmarkTree.WIDTH, MultiSplitBenchmarkTree.HEIGHT, true);
+        engine.apply(tree);
+        return tree.getChecksum();
+    }
+
+    /**
+     * Measuring the preferred size of every Split in the tree.
+     */
+    @Benchmark
+    public int getPreferredSize() {
+        engine.measure(tree);
+        return engine.getPreferredWidth(0);
+    }
+
+    /**
+     * Resolving a press at a random point to a Divider or to no Divider.
+     */
+    @Benchmark
+    public int getDividerAt() {
+        point = (point + 1) & (POINTS - 1);
+        return engine.getDividerAt(pointsX[point], pointsY[point]);
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2012, Codename One and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Codename One designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Codename One through http://www.codenameone.com/ if you
+ * need additional information or have any questions.
+ */
+
+package com.codename1.components;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the geometry computed by the {@link MultiSplitLayoutEngine}.
+ * The trees are single row Splits of panes 1, 3, 5... separated by
+ * Dividers 2, 4, 6... that are 2 pixels thick.
+ */
+public class MultiSplitLayoutEngineTest {
+    private static final int DIVIDER = 2;
+    private static final int HEIGHT = 50;
+
+    /**
+     * A row Split whose panes have a preferred width, weight and limits.
+     */
+    private static final class RowTree implements MultiSplitLayoutEngine.SizeProvider {
+        final MultiSplitLayoutEngine engine;
+        final int[] preferred;
+        final double[] weight;
+        final int[] minimum;
+        final int[] maximum;
+
+        RowTree(int panes, int preferredWidth) {
+            int size = panes * 2;
+            engine = new MultiSplitLayoutEngine(size);
+            preferred = new int[size];
+            weight = new double[size];
+            minimum = new int[size];
+            maximum = new int[size];
+            engine.add(-1, MultiSplitLayoutEngine.SPLIT, true, 0);
+            for (int node = 1; node < size; node++) {
+                boolean pane = node % 2 == 1;
+                engine.add(0, pane ? MultiSplitLayoutEngine.LEAF : MultiSplitLayoutEngine.DIVIDER, false, 0);
+                preferred[node] = pane ? preferredWidth : DIVIDER;
+                maximum[node] = Integer.MAX_VALUE;
+            }
+        }
+
+        void layout(int width, boolean floating) {
+            if (!floating) {
+                engine.measure(this);
+            }
+            engine.layout(0, 0, width, HEIGHT, floating);
+        }
+
+        int width(int node) {
+            return engine.getWidth(node);
+        }
+
+        int x(int node) {
+            return engine.getX(node);
+        }
+
+        @Override
+        public int getPreferredWidth(int node) {
+            return preferred[node];
+        }
+
+        @Override
+        public int getPreferredHeight(int node) {
+            return HEIGHT;
+        }
+
+        @Override
+        public double getWeight(int node) {
+            return weight[node];
+        }
+
+        @Override
+        public int getMinimumSize(int node) {
+            return minimum[node];
+        }
+
+        @Override
+        public int getMaximumSize(int node) {
+            return maximum[node];
+        }
+    }
+
+    private static void assertContiguous(RowTree tree, int width) {
+        int end = 0;
+        for (int node = 1; node < tree.engine.size(); node++) {
+            assertEquals("x of node " + node, end, tree.x(node));
+            assertTrue("width of node " + node, tree.width(node) >= 0);
+            end += tree.width(node);
+        }
+        assertEquals(width, end);
+    }
+
+    @Test
+    public void layoutGivesExtraSpaceByWeight() {
+        RowTree tree = new RowTree(3, 10);
+        tree.weight[1] = 0.5;
+        tree.weight[3] = 0.5;
+        tree.layout(134, false);
+        assertEquals(60, tree.width(1));
+        assertEquals(60, tree.width(3));
+        assertEquals(10, tree.width(5));
+        assertContiguous(tree, 134);
+    }
+
+    @Test
+    public void layoutClampsPanesToTheirMaximum() {
+        RowTree tree = new RowTree(3, 10);
+        tree.weight[1] = 0.5;
+        tree.weight[3] = 0.5;
+        tree.maximum[1] = 30;
+        tree.layout(134, false);
+        assertEquals(30, tree.width(1));
+        assertEquals(60, tree.width(3));
+        // the space the first pane can't take goes to the last pane.
+        assertEquals(40, tree.width(5));
+        assertContiguous(tree, 134);
+    }
+
+    @Test
+    public void layoutKeepsPanesAtTheirMinimumWhenShrinking() {
+        RowTree tree = new RowTree(3, 40);
+        tree.weight[1] = 0.5;
+        tree.weight[3] = 0.5;
+        tree.minimum[1] = 40;
+        tree.minimum[5] = 30;
+        tree.layout(94, false);
+        assertEquals(40, tree.width(1));
+        assertEquals(30, tree.width(5));
+        assertEquals(20, tree.width(3));
+        assertContiguous(tree, 94);
+    }
+
+    @Test
+    public void moveDividerShrinksTheNextPaneDownToItsMinimum() {
+        RowTree tree = new RowTree(3, 10);
+        tree.weight[1] = 0.3;
+        tree.weight[3] = 0.3;
+        tree.minimum[3] = 20;
+        tree.minimum[5] = 20;
+        tree.layout(304, false);
+        int dividerX = tree.x(2);
+        int applied = tree.engine.moveDivider(2, dividerX + 1000);
+        tree.engine.layoutDividerSiblings(2);
+        assertEquals(20, tree.width(3));
+        assertEquals(20, tree.width(5));
+        assertEquals(304 - 20 - DIVIDER - 20 - DIVIDER, applied);
+        assertContiguous(tree, 304);
+    }
+
+    @Test
+    public void moveDividerPushesTheFollowingDividers() {
+        RowTree tree = new RowTree(4, 10);
+        tree.minimum[3] = 10;
+        tree.layout(406, false);
+        tree.engine.moveDivider(2, 100);
+        tree.engine.layoutDividerSiblings(2);
+        tree.engine.moveDivider(4, 200);
+        tree.engine.layoutDividerSiblings(4);
+        tree.engine.moveDivider(6, 300);
+        tree.engine.layoutDividerSiblings(6);
+        // the second pane stops at its minimum and pushes the next divider along.
+        int applied = tree.engine.moveDivider(2, 250);
+        tree.engine.layoutDividerSiblings(2);
+        assertEquals(250, applied);
+        assertEquals(10, tree.width(3));
+        assertEquals(250 + DIVIDER + 10, tree.x(4));
+        assertEquals(300, tree.x(6));
+        assertContiguous(tree, 406);
+    }
+
+    @Test
+    public void moveDividerStopsAtTheMaximumOfTheGrowingPane() {
+        RowTree tree = new RowTree(2, 10);
+        tree.maximum[1] = 120;
+        tree.layout(302, false);
+        int applied = tree.engine.moveDivider(2, 200);
+        tree.engine.layoutDividerSiblings(2);
+        assertEquals(120, applied);
+        assertEquals(120, tree.width(1));
+        assertContiguous(tree, 302);
+    }
+
+    @Test
+    public void sizeLimitsApplyWithoutMeasuring() {
+        RowTree tree = new RowTree(2, 10);
+        tree.layout(302, false);
+        tree.engine.moveDivider(2, 100);
+        tree.engine.layoutDividerSiblings(2);
+        tree.engine.setSizeLimits(3, 150, Integer.MAX_VALUE);
+        tree.engine.moveDivider(2, 250);
+        tree.engine.layoutDividerSiblings(2);
+        assertEquals(150, tree.width(3));
+        tree.minimum[1] = 200;
+        tree.engine.measureLimits(tree);
+        tree.layout(302, true);
+        assertEquals(200, tree.width(1));
+        assertContiguous(tree, 302);
+    }
+
+    @Test
+    public void expandedPaneGetsItsSizeBack() {
+        RowTree tree = new RowTree(3, 10);
+        tree.layout(304, false);
+        tree.engine.moveDivider(2, 100);
+        tree.engine.layoutDividerSiblings(2);
+        tree.engine.moveDivider(4, 240);
+        tree.engine.layoutDividerSiblings(4);
+        assertEquals(62, tree.width(5));
+        tree.engine.setCollapsed(5, true, 62);
+        tree.layout(304, true);
+        assertEquals(0, tree.width(5));
+        assertEquals(0, tree.width(4));
+        tree.engine.setCollapsed(5, false, 62);
+        tree.layout(304, true);
+        // the last pane is expanded, the space is taken from the pane before it.
+        assertEquals(62, tree.width(5));
+        assertEquals(100, tree.width(1));
+        assertContiguous(tree, 304);
+    }
+
+    @Test
+    public void thinDividerIsHitFromAnywhereWithinTheSlop() {
+        RowTree tree = new RowTree(2, 10);
+        tree.layout(302, false);
+        tree.engine.moveDivider(2, 100);
+        tree.engine.layoutDividerSiblings(2);
+        for (int px = 92; px <= 109; px++) {
+            assertEquals("x " + px, 2, tree.engine.getDividerAt(px, 10, 8));
+        }
+        assertEquals(-1, tree.engine.getDividerAt(91, 10, 8));
+        assertEquals(-1, tree.engine.getDividerAt(110, 10, 8));
+        assertEquals(-1, tree.engine.getDividerAt(99, 10));
+    }
+
+    @Test
+    public void nearestDividerWinsWithinTheSlop() {
+        RowTree tree = new RowTree(3, 10);
+        tree.layout(306, false);
+        tree.engine.moveDivider(2, 100);
+        tree.engine.layoutDividerSiblings(2);
+        tree.engine.moveDivider(4, 110);
+        tree.engine.layoutDividerSiblings(4);
+        assertEquals(2, tree.engine.getDividerAt(104, 10, 8));
+        assertEquals(4, tree.engine.getDividerAt(107, 10, 8));
+        assertEquals(4, tree.engine.getDividerAt(110, 10, 8));
+    }
+
+    @Test
+    public void dividerNextToACollapsedPaneCantBeMoved() {
+        RowTree tree = new RowTree(3, 10);
+        tree.layout(304, false);
+        tree.engine.setCollapsed(5, true, tree.width(5));
+        tree.layout(304, true);
+        assertFalse(tree.engine.isDividerShown(4));
+        assertTrue(tree.engine.isDividerShown(2));
+        int position = tree.x(4);
+        assertEquals(position, tree.engine.moveDivider(4, 150));
+        tree.engine.layoutDividerSiblings(4);
+        assertEquals(0, tree.width(5));
+        assertContiguous(tree, 304);
+    }
+
+    @Test
+    public void pushedNodesAreLaidOutWithoutTheSiblings() {
+        RowTree tree = new RowTree(3, 10);
+        tree.minimum[3] = 10;
+        tree.layout(304, false);
+        tree.engine.moveDivider(2, 100);
+        tree.engine.moveDivider(4, 200);
+        tree.engine.layoutDividerSiblings(2);
+        tree.engine.layoutDividerSiblings(4);
+        tree.engine.moveDivider(2, 250);
+        tree.engine.layoutPushedNodes(2);
+        // only the pushed Divider and the pane after it are reported.
+        assertEquals(2, tree.engine.getTouchedCount());
+        assertEquals(250 + DIVIDER + 10, tree.x(4));
+        tree.engine.layoutDividerSiblings(2);
+        assertContiguous(tree, 304);
+    }
+
+    @Test
+    public void insertAndRemoveChildrenShiftTheFollowingNodes() {
+        MultiSplitLayoutEngine engine = new MultiSplitLayoutEngine(10);
+        engine.add(-1, MultiSplitLayoutEngine.SPLIT, true, 0);
+        engine.add(0, MultiSplitLayoutEngine.LEAF, false, 0);
+        engine.add(0, MultiSplitLayoutEngine.DIVIDER, false, 0);
+        engine.add(0, MultiSplitLayoutEngine.SPLIT, false, 0);
+        engine.add(3, MultiSplitLayoutEngine.LEAF, false, 0);
+        engine.add(3, MultiSplitLayoutEngine.DIVIDER, false, 0);
+        engine.add(3, MultiSplitLayoutEngine.LEAF, false, 0);
+        assertTrue(engine.insertChildren(0, 1, MultiSplitLayoutEngine.LEAF, MultiSplitLayoutEngine.DIVIDER));
+        assertEquals(9, engine.size());
+        assertEquals(5, engine.getChildCount(0));
+        assertEquals(MultiSplitLayoutEngine.SPLIT, engine.getKind(5));
+        assertEquals(6, engine.getFirstChild(5));
+        assertEquals(5, engine.getParent(8));
+        assertFalse(engine.insertChildren(0, 6, MultiSplitLayoutEngine.DIVIDER, MultiSplitLayoutEngine.LEAF));
+        engine.removeChildren(0, 1);
+        assertEquals(7, engine.size());
+        assertEquals(3, engine.getChildCount(0));
+        assertEquals(4, engine.getFirstChild(3));
+        assertEquals(3, engine.getParent(6));
+    }
+
+    @Test
+    public void resetUnderACollapsedPaneIsNotPending() {
+        MultiSplitLayoutEngine engine = new MultiSplitLayoutEngine(6);
+        engine.add(-1, MultiSplitLayoutEngine.SPLIT, true, 0);
+        engine.add(0, MultiSplitLayoutEngine.LEAF, false, 0);
+        engine.add(0, MultiSplitLayoutEngine.DIVIDER, false, 0);
+        engine.add(0, MultiSplitLayoutEngine.SPLIT, false, 0);
+        engine.add(3, MultiSplitLayoutEngine.LEAF, false, 0);
+        engine.add(3, MultiSplitLayoutEngine.DIVIDER, false, 0);
+        engine.setCollapsed(3, true, 0);
+        engine.resetSplit(3);
+        engine.layout(0, 0, 100, HEIGHT, true);
+        assertFalse(engine.isResetPending());
+        engine.setCollapsed(3, false, 0);
+        assertTrue(engine.isResetPending());
+    }
+}
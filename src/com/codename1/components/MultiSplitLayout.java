@@ -23,23 +23,47 @@
 
 package com.codename1.components;
 
+import com.codename1.ui.Component;
 import com.codename1.ui.Container;
+import com.codename1.ui.Display;
 import com.codename1.ui.geom.Dimension;
-import com.codename1.ui.geom.Rectangle;
 import com.codename1.ui.layouts.Layout;
 import com.codename1.ui.plaf.Style;
+import com.codename1.util.EasyThread;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * The MultiSplitLayout that works only with MultiSplitPane and recursively
- * layout the given model.
+ * The MultiSplitLayout that works only with MultiSplitPane and layout the given model.
+ * The geometry is computed by the Codename One independent {@link MultiSplitLayoutEngine},
+ * this class only adapts the Nodes and their Components to it.
  * The model of this layout manager is Nodes tree model. The root must be Split that
  * can hold Leaf's(that represents Components), Dividers(that also represent
  * components), and Splits(that holds a group of Nodes).
  */
 public class MultiSplitLayout extends Layout {
     private boolean floatingDividers = false;
+    private MultiSplitLayoutEngine engine;
+    private MultiSplitPane.Node[] nodes;
+    private Component[] components;
+    private MultiSplitPane.Split compiledRoot;
+    private int compiledVersion;
+    private int limitsVersion;
+    private MultiSplitMetrics metrics;
+    private MultiSplitState pendingState;
+    private final NodesSizeProvider sizeProvider = new NodesSizeProvider();
+    private final ComponentsSink layoutSink = new ComponentsSink(false);
+    private final ComponentsSink relayoutSink = new ComponentsSink(true);
+    private int[] dividerIndexes = new int[0];
+    private MultiSplitPane.Divider[] lightweightDividers = new MultiSplitPane.Divider[0];
+    private boolean asyncLayout;
+    private EasyThread layoutThread;
+    private volatile int layoutGeneration;
+    private int boundsVersion;
+    private CachedLayout[] layoutCache = new CachedLayout[4];
+    private int layoutCacheCount;
+    private final CachedLayout layoutKey = new CachedLayout();
 
     /**
      * Returns the floatingDividers property value.
@@ -62,6 +86,390 @@ public class MultiSplitLayout extends Layout {
         this.floatingDividers = floatingDividers;
     }
 
+    /**
+     * @return true if the layout is computed off the EDT.
+     * @see    #setAsyncLayout(boolean)
+     */
+    public boolean isAsyncLayout() {
+        return asyncLayout;
+    }
+
+    /**
+     * If true a full layout measures the Nodes on the EDT, computes the new
+     * bounds on a background thread from a copy of the measured tree and
+     * applies them to the Components later on the EDT. Until then the
+     * Components keep their current bounds. A result is dropped if a newer
+     * layout, drag or change of the tree happened while it was computed.
+     * The first layout of the container and drags are always done on the EDT.
+     * Useful for trees with thousands of Nodes.
+     *
+     * @param asyncLayout true to compute the layout off the EDT.
+     */
+    public void setAsyncLayout(boolean asyncLayout) {
+        this.asyncLayout = asyncLayout;
+        if (!asyncLayout) {
+            stopAsyncLayout();
+        }
+    }
+
+    /**
+     * @return the number of recent layouts kept for reuse.
+     * @see    #setLayoutCacheSize(int)
+     */
+    public int getLayoutCacheSize() {
+        return layoutCache.length;
+    }
+
+    /**
+     * Sets how many recent layouts are kept for reuse, 4 by default.
+     * A layout is reused when the container gets a size and padding it
+     * had before and the tree, the weights, the size limits, the divider
+     * positions and, without floating dividers, the preferred sizes did not
+     * change since. The cached bounds are then applied without laying out
+     * the tree, e.g. when rotating the device back and forth.
+     *
+     * @param size the number of layouts to keep, 0 disables the cache.
+     */
+    public void setLayoutCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid cache size");
+        }
+        layoutCache = new CachedLayout[size];
+        layoutCacheCount = 0;
+    }
+
+    /**
+     * Drops the result of the layout that is being computed off the EDT, if any.
+     */
+    public void cancelAsyncLayout() {
+        layoutGeneration++;
+    }
+
+    /**
+     * Drops the result of the layout that is being computed off the EDT and
+     * stops the background thread of the layout, e.g. when the container is
+     * removed from the screen. The next layout off the EDT starts a new thread.
+     */
+    public void stopAsyncLayout() {
+        cancelAsyncLayout();
+        if (layoutThread != null) {
+            layoutThread.kill();
+            layoutThread = null;
+        }
+    }
+
+    /**
+     * Returns the metrics that collect the work done by this layout.
+     *
+     * @return the metrics or null if they are not collected.
+     */
+    public MultiSplitMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics that will collect the work done by this layout.
+     *
+     * @param metrics the metrics or null to stop collecting.
+     */
+    public void setMetrics(MultiSplitMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compiles the Nodes tree into the flat arrays the layout runs over.
+     * Called by {@link MultiSplitPane#build()}, and automatically before the
+     * next layout if the root or the structure of the tree has been changed.
+     * The current bounds of the Nodes are kept so floating dividers stay in place.
+     * The arrays leave room for some more Nodes, so Leaf panes can be
+     * inserted later without compiling the tree again.
+     *
+     * @param root the root of the Nodes tree.
+     */
+    public void compile(MultiSplitPane.Split root) {
+        List<MultiSplitPane.Node> order = new ArrayList<>();
+        order.add(root);
+        for (int i = 0; i < order.size(); i++) {
+            MultiSplitPane.Node node = order.get(i);
+            if (node instanceof MultiSplitPane.Split) {
+                order.addAll(((MultiSplitPane.Split) node).getChildren());
+            }
+        }
+        int size = order.size();
+        int capacity = size + (size >> 3) + 2;
+        engine = new MultiSplitLayoutEngine(capacity);
+        nodes = order.toArray(new MultiSplitPane.Node[capacity]);
+        components = new Component[capacity];
+        for (int i = 0; i < size; i++) {
+            MultiSplitPane.Node node = nodes[i];
+            MultiSplitPane.Split parent = node.getParent();
+            int parentIndex = (i == 0) ? -1 : parent.getLayoutIndex();
+            if (node instanceof MultiSplitPane.Split) {
+                engine.add(parentIndex, MultiSplitLayoutEngine.SPLIT, ((MultiSplitPane.Split) node).isRowSplit(), node.getWeight());
+            } else {
+                engine.add(parentIndex, kindOf(node), false, node.getWeight());
+            }
+            initNode(i, node, parentIndex);
+        }
+        collectLightweightDividers();
+        compiledRoot = root;
+        compiledVersion = root.getStructureVersion();
+        limitsVersion = root.getModelVersion();
+        layoutCacheCount = 0;
+        cancelAsyncLayout();
+    }
+
+    private static byte kindOf(MultiSplitPane.Node node) {
+        if (node instanceof MultiSplitPane.Split) {
+            return MultiSplitLayoutEngine.SPLIT;
+        }
+        return (node instanceof MultiSplitPane.Divider) ? MultiSplitLayoutEngine.DIVIDER : MultiSplitLayoutEngine.LEAF;
+    }
+
+    /**
+     * Binds a Node that has been added to the engine at the given index to
+     * its Component and pushes its limits, bounds and collapsed state.
+     */
+    private void initNode(int i, MultiSplitPane.Node node, int parentIndex) {
+        nodes[i] = node;
+        if (node instanceof MultiSplitPane.Divider) {
+            components[i] = ((MultiSplitPane.Divider) node).getChild();
+        } else if (node instanceof MultiSplitPane.Leaf) {
+            components[i] = ((MultiSplitPane.Leaf) node).getChild();
+        } else {
+            components[i] = null;
+        }
+        node.setLayoutIndex(i);
+        if (i > 0) {
+            engine.setSizeLimits(i, node.getMinimumSize(), node.getMaximumSize());
+        }
+        engine.setBounds(i, node.getX(), node.getY(), node.getWidth(), node.getHeight());
+        if (node.isCollapsed()) {
+            engine.setCollapsed(i, true, node.getRestoreSize());
+        }
+        if (node instanceof MultiSplitPane.Divider && node.getWidth() == 0 && node.getHeight() == 0) {
+            // a new Divider has no position to float at yet.
+            engine.resetSplit(parentIndex);
+        }
+    }
+
+    private void collectLightweightDividers() {
+        List<MultiSplitPane.Divider> lightweight = new ArrayList<>();
+        for (int i = 0; i < engine.size(); i++) {
+            if (components[i] == null && nodes[i] instanceof MultiSplitPane.Divider) {
+                lightweight.add((MultiSplitPane.Divider) nodes[i]);
+            }
+        }
+        lightweightDividers = lightweight.toArray(new MultiSplitPane.Divider[lightweight.size()]);
+    }
+
+    /**
+     * Checks if the only structure change since the tree was compiled is the
+     * one about to be patched into the engine.
+     */
+    private boolean canPatch(MultiSplitPane.Split root, MultiSplitPane.Split split) {
+        int index = split.getLayoutIndex();
+        return engine != null && compiledRoot == root && compiledVersion + 1 == root.getStructureVersion()
+                && index >= 0 && index < engine.size() && nodes[index] == split;
+    }
+
+    private void patched(MultiSplitPane.Split root) {
+        compiledVersion = root.getStructureVersion();
+        layoutCacheCount = 0;
+        cancelAsyncLayout();
+    }
+
+    /**
+     * Patches a Leaf and its Divider that have just been inserted into a
+     * Split into the compiled layout, shifting the Nodes after them, instead
+     * of compiling the whole tree again. An inserted Split, a tree that was
+     * changed otherwise since it was compiled or arrays without room for the
+     * new Nodes make the next layout compile the tree again instead.
+     *
+     * @param root  the root of the Nodes tree.
+     * @param split the Split the Nodes were inserted into.
+     * @param index the index of the first new Node in the children of the Split.
+     */
+    void childrenInserted(MultiSplitPane.Split root, MultiSplitPane.Split split, int index) {
+        if (!canPatch(root, split)) {
+            return;
+        }
+        List<MultiSplitPane.Node> children = split.getChildren();
+        MultiSplitPane.Node first = children.get(index);
+        MultiSplitPane.Node second = children.get(index + 1);
+        int splitIndex = split.getLayoutIndex();
+        int at = engine.getFirstChild(splitIndex) + index;
+        if (first instanceof MultiSplitPane.Split || second instanceof MultiSplitPane.Split
+                || engine.getChildCount(splitIndex) + 2 != children.size()
+                || !engine.insertChildren(splitIndex, at, kindOf(first), kindOf(second))) {
+            return;
+        }
+        int size = engine.size();
+        System.arraycopy(nodes, at, nodes, at + 2, size - at - 2);
+        System.arraycopy(components, at, components, at + 2, size - at - 2);
+        for (int i = at + 2; i < size; i++) {
+            nodes[i].setLayoutIndex(i);
+        }
+        initNode(at, first, splitIndex);
+        initNode(at + 1, second, splitIndex);
+        if (components[at] == null || components[at + 1] == null) {
+            collectLightweightDividers();
+        }
+        patched(root);
+    }
+
+    /**
+     * Patches a Leaf and its Divider that have just been removed from a
+     * Split out of the compiled layout, shifting the Nodes after them,
+     * instead of compiling the whole tree again. A removed Split or a tree
+     * that was changed otherwise since it was compiled make the next layout
+     * compile the tree again instead.
+     *
+     * @param root  the root of the Nodes tree.
+     * @param split the Split the Nodes were removed from.
+     * @param index the index the first removed Node had in the children of the Split.
+     */
+    void childrenRemoved(MultiSplitPane.Split root, MultiSplitPane.Split split, int index) {
+        if (!canPatch(root, split)) {
+            return;
+        }
+        int splitIndex = split.getLayoutIndex();
+        int at = engine.getFirstChild(splitIndex) + index;
+        if (engine.getChildCount(splitIndex) - 2 != split.getChildren().size()
+                || engine.getKind(at) == MultiSplitLayoutEngine.SPLIT || engine.getKind(at + 1) == MultiSplitLayoutEngine.SPLIT) {
+            return;
+        }
+        boolean lightweight = components[at] == null || components[at + 1] == null;
+        engine.removeChildren(splitIndex, at);
+        int size = engine.size();
+        System.arraycopy(nodes, at + 2, nodes, at, size - at);
+        System.arraycopy(components, at + 2, components, at, size - at);
+        nodes[size] = nodes[size + 1] = null;
+        components[size] = components[size + 1] = null;
+        for (int i = at; i < size; i++) {
+            nodes[i].setLayoutIndex(i);
+        }
+        if (lightweight) {
+            collectLightweightDividers();
+        }
+        patched(root);
+    }
+
+    /**
+     * Patches a Leaf or Divider that has just replaced another one in a
+     * Split into the compiled layout instead of compiling the whole tree
+     * again. Replacing a Split, or with a Split, or a tree that was changed
+     * otherwise since it was compiled make the next layout compile the tree again.
+     *
+     * @param root    the root of the Nodes tree.
+     * @param oldNode the replaced Node.
+     * @param newNode the Node that took its place.
+     */
+    void childReplaced(MultiSplitPane.Split root, MultiSplitPane.Node oldNode, MultiSplitPane.Node newNode) {
+        MultiSplitPane.Split split = newNode.getParent();
+        int index = oldNode.getLayoutIndex();
+        if (!canPatch(root, split) || index <= 0 || index >= engine.size() || nodes[index] != oldNode
+                || kindOf(oldNode) == MultiSplitLayoutEngine.SPLIT || kindOf(oldNode) != kindOf(newNode)) {
+            return;
+        }
+        initNode(index, newNode, split.getLayoutIndex());
+        engine.setCollapsed(index, newNode.isCollapsed(), newNode.getRestoreSize());
+        if (newNode instanceof MultiSplitPane.Divider) {
+            collectLightweightDividers();
+        }
+        patched(root);
+    }
+
+    /**
+     * Captures the current layout of the tree so it can be restored
+     * later with {@link #restoreState(MultiSplitPane.Split, MultiSplitState)}.
+     *
+     * @return the snapshot or null if nothing was laid out yet.
+     */
+    public MultiSplitState captureState() {
+        if (engine == null) {
+            return null;
+        }
+        // refreshes the weights in the engine without measuring any Component.
+        engine.measureLimits(sizeProvider);
+        return MultiSplitState.capture(engine, isFloatingDividers());
+    }
+
+    /**
+     * Restores the weights and the collapsed panes of the tree from a snapshot
+     * and keeps the snapshot for the next layout. If the container has the same size as when the
+     * snapshot was taken, the next layout applies its bounds directly without
+     * measuring any Component. Otherwise dragged dividers are scaled to the
+     * new size and the panes are laid out between them, and without dragged
+     * dividers the tree is laid out normally with the restored weights.
+     *
+     * @param root  the root of the Nodes tree.
+     * @param state the snapshot to restore.
+     * @return false if the snapshot was taken from a tree with a different structure.
+     */
+    public boolean restoreState(MultiSplitPane.Split root, MultiSplitState state) {
+        ensureCompiled(root);
+        if (!state.matches(engine)) {
+            return false;
+        }
+        boolean collapseChanged = false;
+        for (int i = 1; i < engine.size(); i++) {
+            nodes[i].setWeight(state.getWeight(i));
+            if (nodes[i].isCollapsed() != state.isCollapsed(i)) {
+                nodes[i].setCollapsed(state.isCollapsed(i), state.getRestoreSize(i));
+                collapseChanged = true;
+            }
+        }
+        if (collapseChanged) {
+            // the collapsed panes are seeded as they were saved, without expanding any of them.
+            compile(root);
+        }
+        pendingState = state;
+        boundsVersion++;
+        cancelAsyncLayout();
+        return true;
+    }
+
+    private boolean applyPendingState(int x, int y, int width, int height) {
+        MultiSplitState state = pendingState;
+        if (state == null || width <= 0 || height <= 0) {
+            return false;
+        }
+        pendingState = null;
+        if (!state.matches(engine)) {
+            return false;
+        }
+        setFloatingDividers(state.isFloatingDividers());
+        if (state.matchesRootBounds(x, y, width, height)) {
+            state.restoreBounds(engine);
+            return true;
+        }
+        if (state.isFloatingDividers()) {
+            // the next layout fits the panes between the scaled dividers.
+            state.restoreScaledBounds(engine, x, y, width, height);
+        }
+        return false;
+    }
+
+    private void ensureCompiled(MultiSplitPane.Split root) {
+        if (engine == null || compiledRoot != root || compiledVersion != root.getStructureVersion()) {
+            compile(root);
+        }
+        refreshLimits();
+    }
+
+    /**
+     * Pushes the weights and the size limits into the engine if any of them
+     * changed since, because layouts with floating dividers and drags don't measure.
+     */
+    private void refreshLimits() {
+        int version = compiledRoot.getModelVersion();
+        if (limitsVersion != version) {
+            engine.measureLimits(sizeProvider);
+            limitsVersion = version;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -77,130 +485,577 @@ public class MultiSplitLayout extends Layout {
      */
     @Override
     public void layoutContainer(Container parent) {
-        MultiSplitPane.Node root =((MultiSplitPane) parent).getRoot();
-        Dimension size = new Dimension(parent.getWidth(), parent.getHeight());
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        MultiSplitPane.Split root = ((MultiSplitPane) parent).getRoot();
+        ensureCompiled(root);
         Style parentStyle = parent.getStyle();
-        int width = size.getWidth() - parentStyle.getHorizontalPadding();
-        int height = size.getHeight() - parentStyle.getVerticalPadding();
-        Rectangle bounds = new Rectangle(parentStyle.getPaddingLeft(parent.isRTL()), parentStyle.getPaddingTop(), width, height);
-        layoutNodesBounds(root, bounds);
-        setComponentsBounds(root, bounds);
-    }
-
-    private void layoutNodesBounds(MultiSplitPane.Node root, Rectangle bounds) {
-        if (root instanceof MultiSplitPane.Leaf) {
-            root.setBounds(bounds);
-        }
-        else if (root instanceof MultiSplitPane.Split) {
-            MultiSplitPane.Split split = (MultiSplitPane.Split)root;
-            Iterator<MultiSplitPane.Node> splitChildren = split.getChildren().iterator();
-            Rectangle childBounds;
-            double totalWeight = 0.0;
-            if (split.isRowSplit()) {
-                int x = bounds.getX();
-                int extraSpace = bounds.getWidth() - split.getPreferredSize().getWidth();
-                while(splitChildren.hasNext()) {
-                    MultiSplitPane.Node splitChild = splitChildren.next();
-                    MultiSplitPane.Divider dividerChild = splitChildren.hasNext() ? (MultiSplitPane.Divider)(splitChildren.next()) : null;
-                    double childWidth;
-                    if (!isFloatingDividers()) {
-                        childWidth = splitChild.getPreferredSize().getWidth();
-                        if(dividerChild != null){
-                            childWidth += extraSpace * splitChild.getWeight();
-                            totalWeight += splitChild.getWeight();
-                        }else{
-                            childWidth += extraSpace * (1 - totalWeight);
-                        }
-                    }else{
-                        if (dividerChild != null) {
-                            childWidth = dividerChild.getBounds().getX() - x;
-                        }
-                        else {
-                            childWidth = split.getBounds().getX() + split.getBounds().getWidth() - x;
-                        }
-                    }
-                    childBounds = new Rectangle(x, bounds.getY(), (int)childWidth, bounds.getHeight());
-                    layoutNodesBounds(splitChild, childBounds);
-
-                    if (!isFloatingDividers() && (dividerChild != null)) {
-                        double dividerX = childBounds.getX() + childBounds.getWidth();
-                        Rectangle dividerBounds = new Rectangle((int)dividerX, bounds.getY(), dividerChild.getPreferredSize().getWidth(), bounds.getHeight());
-                        dividerChild.setBounds(dividerBounds);
-                    }
-
-                    if(dividerChild != null){
-                        x = dividerChild.getBounds().getX() + dividerChild.getBounds().getWidth();
-                        Rectangle dividerNewBounds = new Rectangle(dividerChild.getBounds());
-                        dividerNewBounds.setHeight(bounds.getHeight());
-                        dividerNewBounds.setY(bounds.getY());
-                        dividerChild.setBounds(dividerNewBounds);
-                    }else{
-                        x = splitChild.getBounds().getX() + splitChild.getBounds().getWidth();
-                    }
-                }
+        int width = parent.getWidth() - parentStyle.getHorizontalPadding();
+        int height = parent.getHeight() - parentStyle.getVerticalPadding();
+        int x = parentStyle.getPaddingLeft(parent.isRTL());
+        int y = parentStyle.getPaddingTop();
+        if (!applyPendingState(x, y, width, height)) {
+            boolean floating = isFloatingDividers();
+            if (!floating || engine.isResetPending()) {
+                engine.measure(sizeProvider);
+            }
+            layoutKey.set(x, y, width, height, floating, root.getModelVersion(), boundsVersion,
+                    floating ? 0 : engine.getMeasureHash());
+            CachedLayout cached = findCachedLayout(layoutKey);
+            if (cached != null) {
+                engine.restoreBounds(cached.bounds);
+            } else if (asyncLayout && engine.getWidth(0) > 0 && engine.getHeight(0) > 0) {
+                layoutAsync(parent, x, y, width, height, layoutKey.copyKey());
+                return;
             } else {
-                int y = bounds.getY();
-                int extraSpace = bounds.getHeight() - split.getPreferredSize().getHeight();
-
-                while(splitChildren.hasNext()) {
-                    MultiSplitPane.Node splitChild = splitChildren.next();
-                    MultiSplitPane.Divider dividerChild =
-                            (splitChildren.hasNext()) ? (MultiSplitPane.Divider)(splitChildren.next()) : null;
-                    int childHeight;
-                    if (!isFloatingDividers()) {
-                        childHeight = splitChild.getPreferredSize().getHeight();
-                        if(dividerChild != null){
-                            childHeight += extraSpace * splitChild.getWeight();
-                            totalWeight += splitChild.getWeight();
-                        }else{
-                            childHeight += extraSpace * (1 - totalWeight);
-                        }
-                    }else{
-                        if (dividerChild != null) {
-                            childHeight = dividerChild.getBounds().getY() - y;
-                        }
-                        else {
-                            childHeight = split.getBounds().getY() + split.getBounds().getHeight() - y;
-                        }
-                    }
-                    childBounds = new Rectangle(bounds.getX(), y, bounds.getWidth(), childHeight);
-                    layoutNodesBounds(splitChild, childBounds);
-
-                    if (!isFloatingDividers() && (dividerChild != null)) {
-                        int dividerY = childBounds.getY() + childBounds.getHeight();
-                        Rectangle dividerBounds = new Rectangle(bounds.getX(), dividerY, bounds.getWidth(), dividerChild.getPreferredSize().getHeight());
-                        dividerChild.setBounds(dividerBounds);
-                    }
-                    if (dividerChild != null) {
-                        y = dividerChild.getBounds().getY() + dividerChild.getBounds().getHeight();
-                        Rectangle dividerNewBounds = new Rectangle(dividerChild.getBounds());
-                        dividerNewBounds.setWidth(bounds.getWidth());
-                        dividerNewBounds.setX(bounds.getX());
-                        dividerChild.setBounds(dividerNewBounds);
-                    }else{
-                        y = splitChild.getBounds().getY() + splitChild.getBounds().getHeight();
-                    }
+                engine.layout(x, y, width, height, floating);
+                storeCachedLayout(layoutKey);
+            }
+        }
+        cancelAsyncLayout();
+        layoutSink.apply(parent);
+        if (metrics != null) {
+            metrics.layoutPerformed(false, false, engine.getTouchedCount(), System.nanoTime() - start);
+        }
+    }
+
+    private void layoutAsync(final Container parent, final int x, final int y, final int width, final int height,
+            final CachedLayout key) {
+        final MultiSplitLayoutEngine snapshot = engine.copy();
+        final boolean floating = isFloatingDividers();
+        final int generation = ++layoutGeneration;
+        if (layoutThread == null) {
+            layoutThread = EasyThread.start("MultiSplitLayout");
+        }
+        layoutThread.run(() -> {
+            if (generation != layoutGeneration) {
+                return;
+            }
+            long start = System.nanoTime();
+            snapshot.layout(x, y, width, height, floating);
+            final long time = System.nanoTime() - start;
+            Display.getInstance().callSerially(() -> {
+                if (generation != layoutGeneration) {
+                    return;
+                }
+                // the copy has the same structure, it becomes the engine as a whole.
+                engine = snapshot;
+                limitsVersion = key.modelVersion;
+                storeCachedLayout(key);
+                // applied outside of a layout pass, so resized panes arrange their own children.
+                relayoutSink.apply(parent);
+                if (metrics != null) {
+                    metrics.layoutPerformed(false, false, engine.getTouchedCount(), time);
                 }
+            });
+        });
+    }
+
+    /**
+     * Lays out only the two siblings of the given Divider after it has been
+     * moved, instead of the whole tree.
+     * The bounds of the siblings subtrees are recomputed from the Divider position,
+     * pushed into the Components that moved and only their region is repainted.
+     * Every other Node and Component keeps its current bounds.
+     * Since the Divider position is used the layout switches to floating dividers.
+     *
+     * @param parent  the MultiSplitPane that holds the Divider.
+     * @param divider the Divider that has been moved.
+     */
+    public void layoutDividerSiblings(Container parent, MultiSplitPane.Divider divider) {
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        ensureCompiled(((MultiSplitPane) parent).getRoot());
+        setFloatingDividers(true);
+        cancelAsyncLayout();
+        int index = divider.getLayoutIndex();
+        engine.layoutDividerSiblings(index);
+        relayoutSink.apply(parent);
+        if (metrics != null) {
+            metrics.layoutPerformed(true, true, engine.getTouchedCount(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Lays out only the subtree of the given Node after the tree has been
+     * changed under it, instead of the whole tree. The Node keeps its current
+     * bounds and its children are arranged by their preferred size and weight.
+     * Only the Components that moved are pushed and repainted.
+     * Does nothing if the Node has not been laid out yet, the next layout of
+     * the container will take care of it.
+     *
+     * @param parent the MultiSplitPane that holds the Node.
+     * @param node   the root of the subtree to lay out.
+     */
+    public void layoutSubtree(Container parent, MultiSplitPane.Node node) {
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        ensureCompiled(((MultiSplitPane) parent).getRoot());
+        if (node.getWidth() <= 0 || node.getHeight() <= 0) {
+            return;
+        }
+        engine.measure(sizeProvider);
+        cancelAsyncLayout();
+        boundsVersion++;
+        engine.layoutSubtree(node.getLayoutIndex());
+        relayoutSink.apply(parent);
+        if (metrics != null) {
+            metrics.layoutPerformed(true, false, engine.getTouchedCount(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Lays out the Split of a pane that has just been inserted with its
+     * Divider. With floating dividers the pane takes its preferred size from
+     * the neighbour on the other side of its Divider, every other Divider of
+     * the Split keeps its position and nested Splits that did not move are
+     * left alone. Otherwise the Split is arranged by preferred size and weight.
+     *
+     * @param parent the MultiSplitPane that holds the pane.
+     * @param pane   the inserted Leaf or Split.
+     */
+    public void layoutInsertedPane(Container parent, MultiSplitPane.Node pane) {
+        MultiSplitPane.Split split = pane.getParent();
+        if (!isFloatingDividers()) {
+            layoutSubtree(parent, split);
+            return;
+        }
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        ensureCompiled(((MultiSplitPane) parent).getRoot());
+        if (split.getWidth() <= 0 || split.getHeight() <= 0) {
+            return;
+        }
+        engine.measure(sizeProvider);
+        cancelAsyncLayout();
+        boundsVersion++;
+        engine.layoutInsertedPane(pane.getLayoutIndex());
+        relayoutSink.apply(parent);
+        if (metrics != null) {
+            metrics.layoutPerformed(true, false, engine.getTouchedCount(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Lays out a Split that a pane and its Divider have just been removed
+     * from. With floating dividers the neighbour of the removed pane takes
+     * its space, every other Divider of the Split keeps its position and
+     * nested Splits that did not move are left alone. Otherwise the Split
+     * is arranged by preferred size and weight.
+     *
+     * @param parent the MultiSplitPane that holds the Split.
+     * @param split  the Split the pane was removed from.
+     */
+    public void layoutRemovedPane(Container parent, MultiSplitPane.Split split) {
+        if (!isFloatingDividers()) {
+            layoutSubtree(parent, split);
+            return;
+        }
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        ensureCompiled(((MultiSplitPane) parent).getRoot());
+        if (split.getWidth() <= 0 || split.getHeight() <= 0) {
+            return;
+        }
+        cancelAsyncLayout();
+        boundsVersion++;
+        engine.layoutSplitChildren(split.getLayoutIndex());
+        relayoutSink.apply(parent);
+        if (metrics != null) {
+            metrics.layoutPerformed(true, false, engine.getTouchedCount(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Applies the collapsed state of a pane to the layout and lays out only
+     * the Split of the pane, keeping the current mode of the dividers.
+     *
+     * @param parent the MultiSplitPane that holds the pane.
+     * @param pane   the pane that has been collapsed or expanded.
+     */
+    public void setCollapsed(Container parent, MultiSplitPane.Node pane) {
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        collapseChanged(parent, pane);
+        MultiSplitPane.Split split = pane.getParent();
+        if (split.getWidth() <= 0 || split.getHeight() <= 0) {
+            return;
+        }
+        boolean floating = isFloatingDividers();
+        if (!floating || engine.isResetPending()) {
+            // an expanded pane can hold Splits that still wait to be laid out by preferred size.
+            engine.measure(sizeProvider);
+        }
+        engine.layoutSubtree(split.getLayoutIndex(), floating);
+        relayoutSink.apply(parent);
+        if (metrics != null) {
+            metrics.layoutPerformed(true, false, engine.getTouchedCount(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Applies the collapsed state of a pane to the layout without laying out
+     * anything, e.g. at the end of a batch that is laid out as a whole.
+     *
+     * @param parent the MultiSplitPane that holds the pane.
+     * @param pane   the pane that has been collapsed or expanded.
+     */
+    void collapseChanged(Container parent, MultiSplitPane.Node pane) {
+        ensureCompiled(((MultiSplitPane) parent).getRoot());
+        cancelAsyncLayout();
+        boundsVersion++;
+        int index = pane.getLayoutIndex();
+        if (index > 0 && index < engine.size() && nodes[index] == pane) {
+            engine.setCollapsed(index, pane.isCollapsed(), pane.getRestoreSize());
+        }
+    }
+
+    /**
+     * Lays out the siblings of several Dividers that were moved together,
+     * e.g. by several fingers, in one pass and one repaint.
+     *
+     * @param parent   the MultiSplitPane that holds the Dividers.
+     * @param dividers the Dividers that have been moved.
+     * @param count    the number of Dividers in the array.
+     * @see   #layoutDividerSiblings(Container, MultiSplitPane.Divider)
+     */
+    public void layoutDividerSiblings(Container parent, MultiSplitPane.Divider[] dividers, int count) {
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        ensureCompiled(((MultiSplitPane) parent).getRoot());
+        setFloatingDividers(true);
+        if (dividerIndexes.length < count) {
+            dividerIndexes = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            dividerIndexes[i] = dividers[i].getLayoutIndex();
+        }
+        cancelAsyncLayout();
+        engine.layoutDividerSiblings(dividerIndexes, count);
+        relayoutSink.apply(parent);
+        if (metrics != null) {
+            metrics.layoutPerformed(true, true, engine.getTouchedCount(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Moves the given Divider to a position along the axis of its Split and
+     * lays out only its two siblings, as one step of a drag would.
+     * While the pane is in a batch update only the Divider is moved and the
+     * layout is left to the end of the batch.
+     *
+     * @param parent   the MultiSplitPane that holds the Divider.
+     * @param divider  the Divider to move.
+     * @param position the new x position for row splits or y position for column splits.
+     * @return the clamped position that was applied.
+     */
+    public int setDividerPosition(Container parent, MultiSplitPane.Divider divider, int position) {
+        ensureCompiled(((MultiSplitPane) parent).getRoot());
+        position = moveDivider(divider, position);
+        if (((MultiSplitPane) parent).isUpdating()) {
+            setFloatingDividers(true);
+        } else {
+            layoutDividerSiblings(parent, divider);
+        }
+        return position;
+    }
+
+    /**
+     * Moves the given Divider along the axis of its Split without laying out
+     * anything. The position is clamped to the outer edges of the Divider siblings.
+     *
+     * @param divider  the Divider to move.
+     * @param position the new x position for row splits or y position for column splits.
+     * @return the clamped position that was applied.
+     */
+    int moveDivider(MultiSplitPane.Divider divider, int position) {
+        refreshLimits();
+        cancelAsyncLayout();
+        boundsVersion++;
+        int index = divider.getLayoutIndex();
+        position = engine.moveDivider(index, position);
+        divider.setBounds(engine.getX(index), engine.getY(index), engine.getWidth(index), engine.getHeight(index));
+        return position;
+    }
+
+    /**
+     * Lays out the panes and Dividers that the last moves of the given
+     * Divider pushed along, without its two siblings, and only updates the
+     * bounds of the siblings Nodes, e.g. while the siblings are painted from
+     * snapshots. The siblings are laid out with the pushed Nodes again by
+     * the next {@link #layoutDividerSiblings(Container, MultiSplitPane.Divider)}.
+     *
+     * @param parent  the MultiSplitPane that holds the Divider.
+     * @param divider the Divider that has been moved.
+     */
+    void layoutPushedNodes(Container parent, MultiSplitPane.Divider divider) {
+        int index = divider.getLayoutIndex();
+        engine.layoutPushedNodes(index);
+        relayoutSink.apply(parent);
+        for (int sibling = index - 1; sibling <= index + 1; sibling += 2) {
+            nodes[sibling].setBounds(engine.getX(sibling), engine.getY(sibling),
+                    engine.getWidth(sibling), engine.getHeight(sibling));
+        }
+    }
+
+    /**
+     * @param parent  the MultiSplitPane that holds the Divider.
+     * @param divider a Divider of the tree.
+     * @return true if the Divider is shown, false if it is hidden next to or
+     *         under a collapsed pane and can't be moved.
+     */
+    boolean isDividerShown(Container parent, MultiSplitPane.Divider divider) {
+        ensureCompiled(((MultiSplitPane) parent).getRoot());
+        return engine.isDividerShown(divider.getLayoutIndex());
+    }
+
+    /**
+     * @param divider a Divider of the compiled tree.
+     * @return the Node before the Divider in its Split.
+     */
+    MultiSplitPane.Node getPreviousSibling(MultiSplitPane.Divider divider) {
+        return nodes[divider.getLayoutIndex() - 1];
+    }
+
+    /**
+     * @param divider a Divider of the compiled tree.
+     * @return the Node after the Divider in its Split.
+     */
+    MultiSplitPane.Node getNextSibling(MultiSplitPane.Divider divider) {
+        return nodes[divider.getLayoutIndex() + 1];
+    }
+
+    /**
+     * Forgets the Component of a LazyLeaf that has been released by the pane.
+     *
+     * @param leaf the released Leaf.
+     */
+    void releaseComponent(MultiSplitPane.LazyLeaf leaf) {
+        int index = leaf.getLayoutIndex();
+        if (nodes != null && index >= 0 && index < engine.size() && nodes[index] == leaf) {
+            components[index] = null;
+        }
+    }
+
+    /**
+     * @return the Dividers of the compiled tree that have no Component and
+     *         are drawn by the pane.
+     */
+    MultiSplitPane.Divider[] getLightweightDividers() {
+        return lightweightDividers;
+    }
+
+    /**
+     * Finds the Divider at the given point of the last layout, or the
+     * nearest one within the given distance of the point.
+     *
+     * @param x    the x coordinate relative to the container.
+     * @param y    the y coordinate relative to the container.
+     * @param slop the distance in pixels around a Divider that still hits it.
+     * @return the Divider at or near the point or null.
+     */
+    MultiSplitPane.Divider getDividerAt(int x, int y, int slop) {
+        if (engine == null) {
+            return null;
+        }
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        int index = engine.getDividerAt(x, y, slop);
+        if (metrics != null) {
+            metrics.hitTestPerformed(System.nanoTime() - start);
+        }
+        return index < 0 ? null : (MultiSplitPane.Divider) nodes[index];
+    }
+
+    private CachedLayout findCachedLayout(CachedLayout key) {
+        for (int i = 0; i < layoutCacheCount; i++) {
+            CachedLayout cached = layoutCache[i];
+            if (cached.matches(key)) {
+                // most recently used first.
+                System.arraycopy(layoutCache, 0, layoutCache, 1, i);
+                layoutCache[0] = cached;
+                return cached;
             }
-            split.setBounds(bounds);
         }
+        return null;
     }
 
-    private void setComponentsBounds(MultiSplitPane.Node root, Rectangle bounds) {
-        if (root instanceof MultiSplitPane.Leaf){
-            ((MultiSplitPane.Leaf) root).getChild().setX(bounds.getX());
-            ((MultiSplitPane.Leaf) root).getChild().setY(bounds.getY());
-            ((MultiSplitPane.Leaf) root).getChild().setWidth(bounds.getWidth());
-            ((MultiSplitPane.Leaf) root).getChild().setHeight(bounds.getHeight());
+    private void storeCachedLayout(CachedLayout key) {
+        if (layoutCache.length == 0) {
+            return;
+        }
+        CachedLayout entry;
+        if (layoutCacheCount < layoutCache.length) {
+            entry = new CachedLayout();
+            layoutCacheCount++;
+        } else {
+            // reuses the least recently used entry and its bounds array.
+            entry = layoutCache[layoutCacheCount - 1];
+        }
+        System.arraycopy(layoutCache, 0, layoutCache, 1, layoutCacheCount - 1);
+        layoutCache[0] = entry;
+        entry.setKey(key);
+        int length = engine.size() * 4;
+        if (entry.bounds == null || entry.bounds.length != length) {
+            entry.bounds = new int[length];
+        }
+        engine.captureBounds(entry.bounds);
+    }
+
+    /**
+     * The bounds of all Nodes of a past layout and the input they were computed from.
+     */
+    private static class CachedLayout {
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+        private boolean floating;
+        private int modelVersion;
+        private int boundsVersion;
+        private int measureHash;
+        private int[] bounds;
+
+        void set(int x, int y, int width, int height, boolean floating, int modelVersion, int boundsVersion, int measureHash) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.floating = floating;
+            this.modelVersion = modelVersion;
+            this.boundsVersion = boundsVersion;
+            this.measureHash = measureHash;
+        }
+
+        void setKey(CachedLayout key) {
+            set(key.x, key.y, key.width, key.height, key.floating, key.modelVersion, key.boundsVersion, key.measureHash);
+        }
+
+        CachedLayout copyKey() {
+            CachedLayout key = new CachedLayout();
+            key.setKey(this);
+            return key;
         }
-        if (root instanceof MultiSplitPane.Divider){
-            ((MultiSplitPane.Divider) root).getChild().setX(bounds.getX());
-            ((MultiSplitPane.Divider) root).getChild().setY(bounds.getY());
-            ((MultiSplitPane.Divider) root).getChild().setWidth(bounds.getWidth());
-            ((MultiSplitPane.Divider) root).getChild().setHeight(bounds.getHeight());
-        }else if (root instanceof MultiSplitPane.Split){
-            for (MultiSplitPane.Node child : ((MultiSplitPane.Split) root).getChildren()){
-                setComponentsBounds(child, child.getBounds());
+
+        boolean matches(CachedLayout key) {
+            return x == key.x && y == key.y && width == key.width && height == key.height
+                    && floating == key.floating && modelVersion == key.modelVersion
+                    && boundsVersion == key.boundsVersion && measureHash == key.measureHash;
+        }
+    }
+
+    /**
+     * Supplies the cached preferred sizes and the weights of the Nodes to the engine.
+     */
+    private class NodesSizeProvider implements MultiSplitLayoutEngine.SizeProvider {
+        @Override
+        public int getPreferredWidth(int node) {
+            if (metrics != null && !nodes[node].isPreferredSizeValid()) {
+                metrics.preferredSizeComputed();
+            }
+            return nodes[node].getPreferredWidth();
+        }
+
+        @Override
+        public int getPreferredHeight(int node) {
+            return nodes[node].getPreferredHeight();
+        }
+
+        @Override
+        public double getWeight(int node) {
+            return nodes[node].getWeight();
+        }
+
+        @Override
+        public int getMinimumSize(int node) {
+            return nodes[node].getMinimumSize();
+        }
+
+        @Override
+        public int getMaximumSize(int node) {
+            return nodes[node].getMaximumSize();
+        }
+    }
+
+    /**
+     * Copies the bounds computed by the engine into the Nodes and their Components.
+     * Components whose bounds did not change are not touched, and the union of the
+     * old and new bounds of the changed Components is collected for repainting.
+     */
+    private class ComponentsSink implements MultiSplitLayoutEngine.BoundsSink {
+        private final boolean layoutComponents;
+        private Container container;
+        private boolean dirty;
+        private int dirtyX1;
+        private int dirtyY1;
+        private int dirtyX2;
+        private int dirtyY2;
+
+        ComponentsSink(boolean layoutComponents) {
+            this.layoutComponents = layoutComponents;
+        }
+
+        /**
+         * Applies the last layout of the engine and repaints only the changed region.
+         *
+         * @param parent the container of the Components.
+         */
+        void apply(Container parent) {
+            dirty = false;
+            container = parent;
+            engine.apply(this);
+            container = null;
+            if (dirty) {
+                // the bounds are relative to the container and dirty regions are absolute.
+                parent.repaint(parent.getAbsoluteX() + dirtyX1, parent.getAbsoluteY() + dirtyY1,
+                        dirtyX2 - dirtyX1, dirtyY2 - dirtyY1);
+            }
+        }
+
+        @Override
+        public void setBounds(int node, int x, int y, int width, int height) {
+            MultiSplitPane.Node n = nodes[node];
+            Component cmp = components[node];
+            if (cmp == null && n instanceof MultiSplitPane.Divider
+                    && (n.getX() != x || n.getY() != y || n.getWidth() != width || n.getHeight() != height)) {
+                // the pane paints lightweight Dividers, so their old and new strips are repainted.
+                addDirty(n.getX(), n.getY(), n.getWidth(), n.getHeight());
+                addDirty(x, y, width, height);
+            }
+            n.setBounds(x, y, width, height);
+            if (cmp == null) {
+                if (width <= 0 || height <= 0 || !(n instanceof MultiSplitPane.LazyLeaf)) {
+                    return;
+                }
+                // the pane gets its Component the first time it becomes visible.
+                cmp = ((MultiSplitPane.LazyLeaf) n).materialize();
+                components[node] = cmp;
+                container.addComponent(cmp);
+            } else if (cmp.getX() == x && cmp.getY() == y && cmp.getWidth() == width && cmp.getHeight() == height) {
+                return;
+            } else if ((width <= 0 || height <= 0) && n instanceof MultiSplitPane.LazyLeaf) {
+                ((MultiSplitPane) container).scheduleRelease((MultiSplitPane.LazyLeaf) n);
+            }
+            addDirty(cmp.getX(), cmp.getY(), cmp.getWidth(), cmp.getHeight());
+            addDirty(x, y, width, height);
+            cmp.setX(x);
+            cmp.setY(y);
+            cmp.setWidth(width);
+            cmp.setHeight(height);
+            if (layoutComponents && cmp instanceof Container) {
+                // outside of a full layout pass nobody else will arrange the children of the Component.
+                ((Container) cmp).setShouldCalcPreferredSize(true);
+                ((Container) cmp).layoutContainer();
+            }
+        }
+
+        private void addDirty(int x, int y, int width, int height) {
+            if (width <= 0 || height <= 0) {
+                return;
+            }
+            if (!dirty) {
+                dirty = true;
+                dirtyX1 = x;
+                dirtyY1 = y;
+                dirtyX2 = x + width;
+                dirtyY2 = y + height;
+            } else {
+                dirtyX1 = Math.min(dirtyX1, x);
+                dirtyY1 = Math.min(dirtyY1, y);
+                dirtyX2 = Math.max(dirtyX2, x + width);
+                dirtyY2 = Math.max(dirtyY2, y + height);
             }
         }
     }
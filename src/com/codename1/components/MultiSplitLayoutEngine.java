@@ -0,0 +1,1313 @@
+/*
+ * Copyright (c) 2012, Codename One and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Codename One designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Codename One through http://www.codenameone.com/ if you
+ * need additional information or have any questions.
+ */
+
+package com.codename1.components;
+
+/**
+ * Pure Java geometry core of the MultiSplitLayout.
+ * The engine has no dependency on Codename One so the same layout can be
+ * computed on a plain JVM, e.g. server side, in benchmarks or for off-screen sizing.
+ * The preferred sizes and weights are pulled through a {@link SizeProvider} and the
+ * computed bounds are pushed through a {@link BoundsSink}.
+ *
+ * The tree is stored as parallel primitive arrays indexed by Node that hold
+ * its kind, parent, orientation, weight, preferred size and computed bounds.
+ * The Nodes are stored in breadth-first order so every parent comes before
+ * its children and the children of a Split are stored next to each other.
+ * This lets a full layout run as one forward loop and the preferred sizes
+ * be measured as one backward loop, without recursion or instanceof checks.
+ *
+ * Every pane can have a minimum and maximum size along the axis of its Split.
+ * The limits are resolved in one pass over the children of each Split, and
+ * a Divider that is moved pushes the following Dividers along when a pane
+ * reaches its minimum size.
+ *
+ * A collapsed pane gets no space and its subtree is not laid out at all.
+ * A Divider is only shown between two panes that are not collapsed.
+ */
+public final class MultiSplitLayoutEngine {
+    /**
+     * Kind of a Node that holds a pane.
+     */
+    public static final byte LEAF = 0;
+
+    /**
+     * Kind of a Node that divides between 2 panes.
+     */
+    public static final byte DIVIDER = 1;
+
+    /**
+     * Kind of a Node that holds a group of Nodes.
+     */
+    public static final byte SPLIT = 2;
+
+    /**
+     * Supplies the sizing input of the Leaf and Divider Nodes.
+     */
+    public interface SizeProvider {
+        /**
+         * @param node the index of a Leaf or Divider.
+         * @return the preferred width of the Node.
+         */
+        int getPreferredWidth(int node);
+
+        /**
+         * @param node the index of a Leaf or Divider.
+         * @return the preferred height of the Node.
+         */
+        int getPreferredHeight(int node);
+
+        /**
+         * @param node the index of any Node but the root.
+         * @return the weight of the Node in its parent Split.
+         */
+        double getWeight(int node);
+
+        /**
+         * @param node the index of any Node but the root.
+         * @return the minimum size of the Node along the axis of its parent Split.
+         */
+        int getMinimumSize(int node);
+
+        /**
+         * @param node the index of any Node but the root.
+         * @return the maximum size of the Node along the axis of its parent Split.
+         */
+        int getMaximumSize(int node);
+    }
+
+    /**
+     * Receives the bounds computed by the engine.
+     */
+    public interface BoundsSink {
+        /**
+         * Called for every Node whose bounds were computed by the last layout call.
+         *
+         * @param node   the index of the Node.
+         * @param x      the x position of the Node.
+         * @param y      the y position of the Node.
+         * @param width  the width of the Node.
+         * @param height the height of the Node.
+         */
+        void setBounds(int node, int x, int y, int width, int height);
+    }
+
+    private int size;
+    private final byte[] kind;
+    private final int[] parent;
+    private final boolean[] rowSplit;
+    private final double[] weight;
+    private final int[] firstChild;
+    private final int[] childCount;
+    private final int[] preferredWidth;
+    private final int[] preferredHeight;
+    private final int[] minimumSize;
+    private final int[] maximumSize;
+    private final boolean[] collapsed;
+    private final boolean[] expanding;
+    private final int[] restoreSize;
+    private final boolean[] hidden;
+    private final boolean[] resetting;
+    private int resetCount;
+    private final int[] x;
+    private final int[] y;
+    private final int[] width;
+    private final int[] height;
+
+    private final int[] touched;
+    private int touchedCount;
+    private final int[] stack;
+    private final int[] extents;
+    private final int[] pushedFirst;
+    private final int[] pushedLast;
+    private final int[] touchStamp;
+    private int touchGeneration = 1;
+    private int measureHash;
+
+    /**
+     * Creates an empty engine that can hold up to the given number of Nodes.
+     *
+     * @param capacity the number of Nodes in the tree.
+     */
+    public MultiSplitLayoutEngine(int capacity) {
+        kind = new byte[capacity];
+        parent = new int[capacity];
+        rowSplit = new boolean[capacity];
+        weight = new double[capacity];
+        firstChild = new int[capacity];
+        childCount = new int[capacity];
+        preferredWidth = new int[capacity];
+        preferredHeight = new int[capacity];
+        minimumSize = new int[capacity];
+        maximumSize = new int[capacity];
+        collapsed = new boolean[capacity];
+        expanding = new boolean[capacity];
+        restoreSize = new int[capacity];
+        hidden = new boolean[capacity];
+        resetting = new boolean[capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        touched = new int[capacity];
+        stack = new int[capacity];
+        extents = new int[capacity];
+        pushedFirst = new int[capacity];
+        pushedLast = new int[capacity];
+        touchStamp = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            pushedFirst[i] = -1;
+        }
+    }
+
+    /**
+     * Creates an independent copy of the engine with the same tree, the
+     * same measured sizes and the same bounds. The copy can be laid out on
+     * another thread while this engine is still in use.
+     *
+     * @return the copy.
+     */
+    public MultiSplitLayoutEngine copy() {
+        int capacity = kind.length;
+        MultiSplitLayoutEngine copy = new MultiSplitLayoutEngine(capacity);
+        copy.size = size;
+        System.arraycopy(kind, 0, copy.kind, 0, capacity);
+        System.arraycopy(parent, 0, copy.parent, 0, capacity);
+        System.arraycopy(rowSplit, 0, copy.rowSplit, 0, capacity);
+        System.arraycopy(weight, 0, copy.weight, 0, capacity);
+        System.arraycopy(firstChild, 0, copy.firstChild, 0, capacity);
+        System.arraycopy(childCount, 0, copy.childCount, 0, capacity);
+        System.arraycopy(preferredWidth, 0, copy.preferredWidth, 0, capacity);
+        System.arraycopy(preferredHeight, 0, copy.preferredHeight, 0, capacity);
+        System.arraycopy(minimumSize, 0, copy.minimumSize, 0, capacity);
+        System.arraycopy(maximumSize, 0, copy.maximumSize, 0, capacity);
+        System.arraycopy(collapsed, 0, copy.collapsed, 0, capacity);
+        System.arraycopy(expanding, 0, copy.expanding, 0, capacity);
+        System.arraycopy(restoreSize, 0, copy.restoreSize, 0, capacity);
+        System.arraycopy(resetting, 0, copy.resetting, 0, capacity);
+        copy.resetCount = resetCount;
+        System.arraycopy(x, 0, copy.x, 0, capacity);
+        System.arraycopy(y, 0, copy.y, 0, capacity);
+        System.arraycopy(width, 0, copy.width, 0, capacity);
+        System.arraycopy(height, 0, copy.height, 0, capacity);
+        System.arraycopy(pushedFirst, 0, copy.pushedFirst, 0, capacity);
+        System.arraycopy(pushedLast, 0, copy.pushedLast, 0, capacity);
+        copy.measureHash = measureHash;
+        return copy;
+    }
+
+    /**
+     * Appends a Node to the engine.
+     * Nodes must be added in breadth-first order: the root first, and the
+     * children of every Split one after the other.
+     *
+     * @param parentIndex the index of the parent Split or -1 for the root.
+     * @param nodeKind    one of LEAF, DIVIDER or SPLIT.
+     * @param row         true if the Node is a row Split.
+     * @param nodeWeight  the weight of the Node.
+     * @return the index of the new Node.
+     */
+    public int add(int parentIndex, byte nodeKind, boolean row, double nodeWeight) {
+        int index = size;
+        if (parentIndex >= 0) {
+            if (kind[parentIndex] != SPLIT || parentIndex >= index) {
+                throw new IllegalArgumentException("Parent must be a Split added before its children");
+            }
+            if (childCount[parentIndex] == 0) {
+                firstChild[parentIndex] = index;
+            } else if (firstChild[parentIndex] + childCount[parentIndex] != index) {
+                throw new IllegalArgumentException("Children of a Split must be added in breadth-first order");
+            }
+            childCount[parentIndex]++;
+        } else if (index != 0) {
+            throw new IllegalArgumentException("Only the first Node can be the root");
+        }
+        kind[index] = nodeKind;
+        parent[index] = parentIndex;
+        rowSplit[index] = row;
+        weight[index] = nodeWeight;
+        minimumSize[index] = 0;
+        maximumSize[index] = Integer.MAX_VALUE;
+        collapsed[index] = false;
+        expanding[index] = false;
+        resetting[index] = false;
+        firstChild[index] = -1;
+        childCount[index] = 0;
+        size++;
+        return index;
+    }
+
+    /**
+     * Inserts a Leaf and a Divider, in either order, into the children of a
+     * Split without compiling the tree again. The Nodes after them are
+     * shifted by two, so their indexes grow by two. The new Nodes have no
+     * weight, no size limits and no bounds, and nothing is laid out.
+     * A Split can't be inserted this way since its children would be spread
+     * over the breadth-first order of the tree.
+     *
+     * @param split      the index of the Split.
+     * @param index      the index of the first new Node, from the first child
+     *                   of the Split up to right after its last child.
+     * @param firstKind  LEAF or DIVIDER.
+     * @param secondKind LEAF or DIVIDER.
+     * @return false if the engine has no capacity left for two more Nodes.
+     */
+    public boolean insertChildren(int split, int index, byte firstKind, byte secondKind) {
+        if (kind[split] != SPLIT || index < firstChild[split] || index > firstChild[split] + childCount[split]
+                || firstKind == SPLIT || secondKind == SPLIT) {
+            throw new IllegalArgumentException("Only a Leaf and a Divider can be inserted into the children of a Split");
+        }
+        if (size + 2 > kind.length) {
+            return false;
+        }
+        moveNodes(index, index + 2, size - index);
+        size += 2;
+        for (int node = 0; node < size; node++) {
+            if (parent[node] >= index) {
+                parent[node] += 2;
+            }
+            if (firstChild[node] >= index && node != split) {
+                firstChild[node] += 2;
+            }
+            if (pushedFirst[node] >= 0 && pushedLast[node] >= index) {
+                pushedFirst[node] += (pushedFirst[node] >= index) ? 2 : 0;
+                pushedLast[node] += 2;
+            }
+        }
+        childCount[split] += 2;
+        pushedFirst[split] = -1;
+        initNode(index, split, firstKind);
+        initNode(index + 1, split, secondKind);
+        resetTouched();
+        return true;
+    }
+
+    /**
+     * Removes a Leaf and a Divider next to each other, in either order, from
+     * the children of a Split without compiling the tree again. The Nodes
+     * after them are shifted by two, so their indexes shrink by two.
+     * Nothing is laid out.
+     *
+     * @param split the index of the Split.
+     * @param index the index of the first of the two Nodes.
+     */
+    public void removeChildren(int split, int index) {
+        if (kind[split] != SPLIT || index < firstChild[split] || index + 2 > firstChild[split] + childCount[split]
+                || kind[index] == SPLIT || kind[index + 1] == SPLIT) {
+            throw new IllegalArgumentException("Only a Leaf and a Divider can be removed from the children of a Split");
+        }
+        moveNodes(index + 2, index, size - index - 2);
+        size -= 2;
+        for (int node = 0; node < size; node++) {
+            if (parent[node] > index) {
+                parent[node] -= 2;
+            }
+            if (firstChild[node] > index) {
+                firstChild[node] -= 2;
+            }
+            if (pushedFirst[node] >= 0 && pushedLast[node] > index) {
+                pushedFirst[node] -= (pushedFirst[node] > index) ? 2 : 0;
+                pushedLast[node] -= 2;
+            }
+        }
+        childCount[split] -= 2;
+        pushedFirst[split] = -1;
+        resetTouched();
+    }
+
+    private void initNode(int index, int parentIndex, byte nodeKind) {
+        kind[index] = nodeKind;
+        parent[index] = parentIndex;
+        rowSplit[index] = false;
+        weight[index] = 0;
+        minimumSize[index] = 0;
+        maximumSize[index] = Integer.MAX_VALUE;
+        collapsed[index] = false;
+        expanding[index] = false;
+        restoreSize[index] = 0;
+        hidden[index] = false;
+        resetting[index] = false;
+        firstChild[index] = -1;
+        childCount[index] = 0;
+        preferredWidth[index] = 0;
+        preferredHeight[index] = 0;
+        pushedFirst[index] = -1;
+        setBounds(index, 0, 0, 0, 0);
+    }
+
+    private void moveNodes(int from, int to, int count) {
+        System.arraycopy(kind, from, kind, to, count);
+        System.arraycopy(parent, from, parent, to, count);
+        System.arraycopy(rowSplit, from, rowSplit, to, count);
+        System.arraycopy(weight, from, weight, to, count);
+        System.arraycopy(firstChild, from, firstChild, to, count);
+        System.arraycopy(childCount, from, childCount, to, count);
+        System.arraycopy(preferredWidth, from, preferredWidth, to, count);
+        System.arraycopy(preferredHeight, from, preferredHeight, to, count);
+        System.arraycopy(minimumSize, from, minimumSize, to, count);
+        System.arraycopy(maximumSize, from, maximumSize, to, count);
+        System.arraycopy(collapsed, from, collapsed, to, count);
+        System.arraycopy(expanding, from, expanding, to, count);
+        System.arraycopy(restoreSize, from, restoreSize, to, count);
+        System.arraycopy(hidden, from, hidden, to, count);
+        System.arraycopy(resetting, from, resetting, to, count);
+        System.arraycopy(x, from, x, to, count);
+        System.arraycopy(y, from, y, to, count);
+        System.arraycopy(width, from, width, to, count);
+        System.arraycopy(height, from, height, to, count);
+        System.arraycopy(pushedFirst, from, pushedFirst, to, count);
+        System.arraycopy(pushedLast, from, pushedLast, to, count);
+    }
+
+    /**
+     * @return the number of Nodes in the engine.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return one of LEAF, DIVIDER or SPLIT.
+     */
+    public byte getKind(int node) {
+        return kind[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the index of the parent Split or -1 for the root.
+     */
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * @param node the index of a Split.
+     * @return true if the children are arranged into a row.
+     */
+    public boolean isRowSplit(int node) {
+        return rowSplit[node];
+    }
+
+    /**
+     * @param node the index of a Split.
+     * @return the index of the first child of the Split.
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the number of children of the Node.
+     */
+    public int getChildCount(int node) {
+        return childCount[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the weight of the Node of the last measure.
+     */
+    public double getWeight(int node) {
+        return weight[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the minimum size along the parent Split axis of the last measure.
+     */
+    public int getMinimumSize(int node) {
+        return minimumSize[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the maximum size along the parent Split axis of the last measure.
+     */
+    public int getMaximumSize(int node) {
+        return maximumSize[node];
+    }
+
+    /**
+     * Sets the minimum and maximum size of a Node along the axis of its
+     * parent Split without measuring, e.g. while compiling the tree.
+     *
+     * @param node    the index of the Node.
+     * @param minimum the minimum size in pixels.
+     * @param maximum the maximum size in pixels.
+     */
+    public void setSizeLimits(int node, int minimum, int maximum) {
+        minimumSize[node] = minimum;
+        maximumSize[node] = maximum;
+    }
+
+    /**
+     * Reads only the weights and the size limits of all Nodes from the
+     * provider, without the preferred sizes. Used to pick up changed limits
+     * while the layout follows floating dividers and doesn't measure.
+     *
+     * @param provider supplies the sizing input of the Nodes.
+     */
+    public void measureLimits(SizeProvider provider) {
+        for (int node = 1; node < size; node++) {
+            weight[node] = provider.getWeight(node);
+            minimumSize[node] = provider.getMinimumSize(node);
+            maximumSize[node] = provider.getMaximumSize(node);
+        }
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return true if the Node is collapsed.
+     */
+    public boolean isCollapsed(int node) {
+        return collapsed[node];
+    }
+
+    /**
+     * Collapses or expands a pane. A collapsed pane gets no space in its
+     * Split and nothing under it is laid out. With floating dividers an
+     * expanded pane gets the given size back on the next layout, taken
+     * from the last panes of the Split. The size is also given back when the
+     * pane was collapsed in an older engine, e.g. before the tree was compiled
+     * again. Nothing is laid out by this call.
+     *
+     * @param node        the index of a Leaf or Split.
+     * @param isCollapsed true to collapse the pane, false to expand it.
+     * @param size        the size to restore the pane to, along the axis of its
+     *                    parent Split, or 0 for its preferred size.
+     */
+    public void setCollapsed(int node, boolean isCollapsed, int size) {
+        if (!isCollapsed && (collapsed[node] || size > 0)) {
+            expanding[node] = true;
+        }
+        restoreSize[node] = size;
+        collapsed[node] = isCollapsed;
+    }
+
+    /**
+     * Makes the next layout of the given Split arrange its children by
+     * their preferred size and weight even with floating dividers, e.g.
+     * when it has new Dividers whose position is not known yet.
+     * The preferred sizes must be measured before that layout.
+     *
+     * @param split the index of the Split.
+     */
+    public void resetSplit(int split) {
+        if (!resetting[split]) {
+            resetting[split] = true;
+            resetCount++;
+        }
+    }
+
+    /**
+     * @return true if a shown Split waits to be laid out by preferred size
+     *         and weight. A Split under a collapsed pane is not laid out, so
+     *         it keeps waiting without being reported until it is shown again.
+     */
+    public boolean isResetPending() {
+        if (resetCount == 0) {
+            return false;
+        }
+        for (int node = 0; node < size; node++) {
+            if (resetting[node] && !isHiddenByCollapse(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the Node or one of its parents is collapsed.
+     */
+    private boolean isHiddenByCollapse(int node) {
+        for (; node > 0; node = parent[node]) {
+            if (collapsed[node]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the size given with the last {@link #setCollapsed(int, boolean, int)}.
+     */
+    public int getRestoreSize(int node) {
+        return restoreSize[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the preferred width of the last measure.
+     */
+    public int getPreferredWidth(int node) {
+        return preferredWidth[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the preferred height of the last measure.
+     */
+    public int getPreferredHeight(int node) {
+        return preferredHeight[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the x position of the Node.
+     */
+    public int getX(int node) {
+        return x[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the y position of the Node.
+     */
+    public int getY(int node) {
+        return y[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the width of the Node.
+     */
+    public int getWidth(int node) {
+        return width[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the height of the Node.
+     */
+    public int getHeight(int node) {
+        return height[node];
+    }
+
+    /**
+     * Sets the bounds of a Node without laying out anything, e.g. to
+     * restore the positions of floating Dividers.
+     *
+     * @param node       the index of the Node.
+     * @param nodeX      the x position of the Node.
+     * @param nodeY      the y position of the Node.
+     * @param nodeWidth  the width of the Node.
+     * @param nodeHeight the height of the Node.
+     */
+    public void setBounds(int node, int nodeX, int nodeY, int nodeWidth, int nodeHeight) {
+        x[node] = nodeX;
+        y[node] = nodeY;
+        width[node] = nodeWidth;
+        height[node] = nodeHeight;
+    }
+
+    /**
+     * Copies the bounds of all Nodes into the given array as
+     * x, y, width and height for every Node.
+     *
+     * @param bounds array of at least 4 * size() entries.
+     */
+    public void captureBounds(int[] bounds) {
+        for (int node = 0, i = 0; node < size; node++) {
+            bounds[i++] = x[node];
+            bounds[i++] = y[node];
+            bounds[i++] = width[node];
+            bounds[i++] = height[node];
+        }
+    }
+
+    /**
+     * Sets the bounds of all Nodes from an array filled by {@link #captureBounds(int[])}
+     * instead of laying them out. All Nodes are reported to the next {@link #apply(BoundsSink)}.
+     * Since every Divider gets a position, no Split waits to be reset anymore.
+     *
+     * @param bounds array of at least 4 * size() entries.
+     */
+    public void restoreBounds(int[] bounds) {
+        for (int node = 0; node < size; node++) {
+            resetting[node] = false;
+        }
+        resetCount = 0;
+        resetTouched();
+        for (int node = 0, i = 0; node < size; node++) {
+            x[node] = bounds[i++];
+            y[node] = bounds[i++];
+            width[node] = bounds[i++];
+            height[node] = bounds[i++];
+            touch(node);
+        }
+    }
+
+    /**
+     * @return the number of Nodes whose bounds were computed by the last layout call.
+     */
+    public int getTouchedCount() {
+        return touchedCount;
+    }
+
+    /**
+     * Pushes the bounds computed by the last layout call into the given sink.
+     * Nodes that were not laid out are not reported.
+     *
+     * @param sink receives the bounds.
+     */
+    public void apply(BoundsSink sink) {
+        for (int i = 0; i < touchedCount; i++) {
+            int node = touched[i];
+            sink.setBounds(node, x[node], y[node], width[node], height[node]);
+        }
+    }
+
+    /**
+     * Reads the preferred sizes of the Leaf's and Dividers and the weights
+     * of all Nodes from the provider, and computes the preferred size of
+     * every Split from the preferred sizes of its children.
+     *
+     * @param provider supplies the sizing input of the Nodes.
+     */
+    public void measure(SizeProvider provider) {
+        int hash = 1;
+        for (int node = size - 1; node >= 0; node--) {
+            if (node > 0) {
+                weight[node] = provider.getWeight(node);
+                minimumSize[node] = provider.getMinimumSize(node);
+                maximumSize[node] = provider.getMaximumSize(node);
+            }
+            if (kind[node] != SPLIT) {
+                preferredWidth[node] = provider.getPreferredWidth(node);
+                preferredHeight[node] = provider.getPreferredHeight(node);
+                hash = 31 * (31 * hash + preferredWidth[node]) + preferredHeight[node];
+                continue;
+            }
+            measureSplit(node, rowSplit[node], firstChild[node], firstChild[node] + childCount[node] - 1,
+                    kind, collapsed, preferredWidth, preferredHeight);
+        }
+        measureHash = hash;
+    }
+
+    /**
+     * Computes the preferred size of a Split from the preferred sizes of its
+     * children the way the layout arranges them: collapsed panes take no
+     * space and a Divider only counts between two panes that are not collapsed.
+     * Shared by {@link #measure(SizeProvider)} and the Split Nodes of the pane.
+     *
+     * @param split     the index the preferred size of the Split is written to.
+     * @param row       true if the Split is a row Split.
+     * @param first     the index of the first child in the arrays.
+     * @param last      the index of the last child in the arrays.
+     * @param kinds     the kinds of the children.
+     * @param collapsed the collapsed state of the children.
+     * @param widths    the preferred widths of the children.
+     * @param heights   the preferred heights of the children.
+     */
+    static void measureSplit(int split, boolean row, int first, int last, byte[] kinds, boolean[] collapsed,
+            int[] widths, int[] heights) {
+        int totalWidth = 0;
+        int totalHeight = 0;
+        boolean shownBefore = false;
+        for (int child = first; child <= last; child++) {
+            if (kinds[child] == DIVIDER) {
+                if (!shownBefore || child == last || collapsed[child + 1]) {
+                    continue;
+                }
+            } else if (collapsed[child]) {
+                continue;
+            } else {
+                shownBefore = true;
+            }
+            if (row) {
+                totalWidth += widths[child];
+                totalHeight = Math.max(totalHeight, heights[child]);
+            } else {
+                totalWidth = Math.max(totalWidth, widths[child]);
+                totalHeight += heights[child];
+            }
+        }
+        widths[split] = totalWidth;
+        heights[split] = totalHeight;
+    }
+
+    /**
+     * @return a hash of the preferred sizes of the Leaf's and Dividers of the
+     *         last measure, to tell whether the content changed between measures.
+     */
+    public int getMeasureHash() {
+        return measureHash;
+    }
+
+    /**
+     * Lays out the whole tree into the given bounds in one pass.
+     *
+     * @param rootX      the x position of the root.
+     * @param rootY      the y position of the root.
+     * @param rootWidth  the width of the root.
+     * @param rootHeight the height of the root.
+     * @param floating   true to arrange the children by the Dividers positions,
+     *                   false to arrange them by their preferred size and weight.
+     */
+    public void layout(int rootX, int rootY, int rootWidth, int rootHeight, boolean floating) {
+        resetTouched();
+        if (size == 0) {
+            return;
+        }
+        setBounds(0, rootX, rootY, rootWidth, rootHeight);
+        touch(0);
+        hidden[0] = false;
+        for (int node = 0; node < size; node++) {
+            if (node > 0) {
+                hidden[node] = collapsed[node] || hidden[parent[node]];
+            }
+            if (kind[node] == SPLIT && !hidden[node]) {
+                layoutChildren(node, floating);
+            }
+        }
+    }
+
+    /**
+     * Moves the given Divider to a new position along its Split axis.
+     * The pane the Divider moves towards shrinks down to its minimum size,
+     * after that the following panes shrink and their Dividers are pushed
+     * along. The pane on the other side grows up to its maximum size.
+     * The position is clamped when no pane can give or take more space.
+     * Only the moved Nodes of the Split are changed and nothing is laid out.
+     * A Divider that is not shown can't be moved.
+     *
+     * @param divider  the index of the Divider.
+     * @param position the new x position for row splits or y position for column splits.
+     * @return the clamped position that was applied.
+     * @see    #isDividerShown(int)
+     */
+    public int moveDivider(int divider, int position) {
+        int split = parent[divider];
+        boolean row = rowSplit[split];
+        int[] pos = row ? x : y;
+        int[] ext = row ? width : height;
+        if (!isDividerShown(divider)) {
+            return pos[divider];
+        }
+        int first = firstChild[split];
+        int last = first + childCount[split] - 1;
+        int prev = shownBefore(divider);
+        int next = divider + 1;
+        int delta = position - pos[divider];
+        if (delta > 0) {
+            int shrink = 0;
+            for (int pane = next; pane <= last && shrink < delta; pane += 2) {
+                shrink += Math.max(0, ext[pane] - minimumSize[pane]);
+            }
+            delta = Math.min(delta, Math.min(shrink, maximumSize[prev] - ext[prev]));
+            if (delta <= 0) {
+                return pos[divider];
+            }
+            ext[prev] += delta;
+            int pane = next;
+            for (int remaining = delta; remaining > 0; pane += 2) {
+                int take = Math.min(remaining, Math.max(0, ext[pane] - minimumSize[pane]));
+                ext[pane] -= take;
+                remaining -= take;
+            }
+            int lastPushed = pane - 2;
+            int nodePos = pos[prev] + ext[prev];
+            for (int node = prev + 1; node <= lastPushed; node++) {
+                pos[node] = nodePos;
+                nodePos += ext[node];
+            }
+            pushed(split, prev, lastPushed);
+        } else if (delta < 0) {
+            int shrink = 0;
+            for (int pane = divider - 1; pane >= first && shrink < -delta; pane -= 2) {
+                shrink += Math.max(0, ext[pane] - minimumSize[pane]);
+            }
+            delta = -Math.min(-delta, Math.min(shrink, maximumSize[next] - ext[next]));
+            if (delta >= 0) {
+                return pos[divider];
+            }
+            ext[next] -= delta;
+            int pane = divider - 1;
+            for (int remaining = -delta; remaining > 0; pane -= 2) {
+                int take = Math.min(remaining, Math.max(0, ext[pane] - minimumSize[pane]));
+                ext[pane] -= take;
+                remaining -= take;
+            }
+            int firstPushed = pane + 2;
+            int nodePos = pos[firstPushed];
+            for (int node = firstPushed; node <= next; node++) {
+                pos[node] = nodePos;
+                nodePos += ext[node];
+            }
+            pushed(split, firstPushed, next);
+        }
+        return pos[divider];
+    }
+
+    /**
+     * @param divider the index of a Divider.
+     * @return true if the Divider is shown, i.e. it has a pane that is not
+     *         collapsed on both sides and no pane above it is collapsed.
+     */
+    public boolean isDividerShown(int divider) {
+        return !collapsed[divider + 1] && !collapsed[shownBefore(divider)] && !isHiddenByCollapse(parent[divider]);
+    }
+
+    /**
+     * @return the nearest pane before the Divider that is not collapsed.
+     */
+    private int shownBefore(int divider) {
+        int pane = divider - 1;
+        while (collapsed[pane] && pane > firstChild[parent[divider]]) {
+            pane -= 2;
+        }
+        return pane;
+    }
+
+    private void pushed(int split, int from, int to) {
+        if (pushedFirst[split] < 0) {
+            pushedFirst[split] = from;
+            pushedLast[split] = to;
+        } else {
+            pushedFirst[split] = Math.min(pushedFirst[split], from);
+            pushedLast[split] = Math.max(pushedLast[split], to);
+        }
+    }
+
+    /**
+     * Lays out only the subtrees on both sides of the given Divider from
+     * its current position, together with the panes and Dividers that were
+     * pushed by {@link #moveDivider(int, int)} since the last call.
+     * All other Nodes keep their bounds.
+     *
+     * @param divider the index of the Divider.
+     */
+    public void layoutDividerSiblings(int divider) {
+        resetTouched();
+        layoutSiblings(divider);
+    }
+
+    /**
+     * Lays out the siblings of several Dividers that were moved together in
+     * one pass. Every Node is reported once to the next {@link #apply(BoundsSink)}
+     * even if it is next to more than one of the Dividers.
+     *
+     * @param dividers the indexes of the Dividers.
+     * @param count    the number of Dividers in the array.
+     */
+    public void layoutDividerSiblings(int[] dividers, int count) {
+        resetTouched();
+        for (int i = 0; i < count; i++) {
+            layoutSiblings(dividers[i]);
+        }
+    }
+
+    /**
+     * Lays out only the panes and Dividers that were pushed along by
+     * {@link #moveDivider(int, int)} of the given Divider, without its two
+     * siblings, e.g. while the siblings are shown as images of themselves.
+     * The pushed Nodes are laid out again by the next
+     * {@link #layoutDividerSiblings(int)} of the Divider.
+     *
+     * @param divider the index of the Divider.
+     */
+    public void layoutPushedNodes(int divider) {
+        resetTouched();
+        int split = parent[divider];
+        if (pushedFirst[split] < 0) {
+            return;
+        }
+        int prev = shownBefore(divider);
+        int next = divider + 1;
+        for (int node = pushedFirst[split]; node <= pushedLast[split]; node++) {
+            if (node >= prev && node <= next) {
+                continue;
+            }
+            if (kind[node] == DIVIDER) {
+                touch(node);
+            } else {
+                layoutDescendants(node, true);
+            }
+        }
+    }
+
+    private void layoutSiblings(int divider) {
+        int split = parent[divider];
+        int prev = shownBefore(divider);
+        int next = divider + 1;
+        int from = prev;
+        int to = next;
+        if (pushedFirst[split] >= 0) {
+            from = Math.min(from, pushedFirst[split]);
+            to = Math.max(to, pushedLast[split]);
+            pushedFirst[split] = -1;
+        }
+        boolean row = rowSplit[split];
+        int[] pos = row ? x : y;
+        int[] ext = row ? width : height;
+        int nextEnd = pos[next] + ext[next];
+        ext[prev] = pos[divider] - pos[prev];
+        for (int node = prev + 1; node < divider; node++) {
+            // collapsed panes and hidden Dividers stay at the end of the shown pane.
+            pos[node] = pos[divider];
+        }
+        pos[next] = pos[divider] + ext[divider];
+        ext[next] = nextEnd - pos[next];
+        for (int node = from; node <= to; node++) {
+            if (kind[node] == DIVIDER) {
+                touch(node);
+            } else {
+                layoutDescendants(node, true);
+            }
+        }
+    }
+
+    /**
+     * Lays out only the subtree of the given Node inside its current bounds,
+     * arranging the children by their preferred size and weight.
+     * All other Nodes keep their bounds. Should be called after {@link #measure(SizeProvider)}.
+     *
+     * @param node the index of the root of the subtree.
+     */
+    public void layoutSubtree(int node) {
+        layoutSubtree(node, false);
+    }
+
+    /**
+     * Lays out only the subtree of the given Node inside its current bounds.
+     * All other Nodes keep their bounds. Without floating dividers it should
+     * be called after {@link #measure(SizeProvider)}.
+     *
+     * @param node     the index of the root of the subtree.
+     * @param floating true to arrange the children by the Dividers positions,
+     *                 false to arrange them by their preferred size and weight.
+     */
+    public void layoutSubtree(int node, boolean floating) {
+        resetTouched();
+        layoutDescendants(node, floating);
+    }
+
+    /**
+     * Makes room for a pane that has just been inserted into its Split
+     * together with its Divider, and lays out the Split by the positions of
+     * its Dividers. The pane gets its preferred size, within its limits,
+     * from the neighbour on the other side of its Divider, so every other
+     * Divider of the Split keeps its position. Only the inserted pane and
+     * the children whose bounds changed are laid out below the Split.
+     * Should be called after {@link #measure(SizeProvider)}.
+     *
+     * @param pane the index of the inserted Leaf or Split.
+     */
+    public void layoutInsertedPane(int pane) {
+        int split = parent[pane];
+        boolean row = rowSplit[split];
+        int[] pos = row ? x : y;
+        int[] ext = row ? width : height;
+        int[] pref = row ? preferredWidth : preferredHeight;
+        int first = firstChild[split];
+        int last = first + childCount[split] - 1;
+        // the Divider is inserted after the pane, or before it if the pane is the last one.
+        int divider = pane < last ? pane + 1 : pane - 1;
+        int neighbour = pane < last ? pane + 2 : pane - 2;
+        int dividerExtent = collapsed[pane] ? 0 : pref[divider];
+        int paneExtent = collapsed[pane] ? 0 : Math.max(minimumSize[pane], Math.min(maximumSize[pane], pref[pane]));
+        int available = Math.max(0, ext[neighbour] - minimumSize[neighbour] - dividerExtent);
+        paneExtent = Math.min(paneExtent, available);
+        int neighbourExtent = ext[neighbour] - paneExtent - dividerExtent;
+        if (pane < last) {
+            pos[pane] = pos[neighbour];
+            pos[divider] = pos[pane] + paneExtent;
+            pos[neighbour] = pos[divider] + dividerExtent;
+        } else {
+            pos[divider] = pos[neighbour] + neighbourExtent;
+            pos[pane] = pos[divider] + dividerExtent;
+        }
+        ext[pane] = paneExtent;
+        ext[divider] = dividerExtent;
+        ext[neighbour] = neighbourExtent;
+        int[] crossPos = row ? y : x;
+        int[] crossExt = row ? height : width;
+        crossPos[pane] = crossPos[divider] = crossPos[split];
+        crossExt[pane] = crossExt[divider] = crossExt[split];
+        if (resetting[split] && !hasUnplacedDivider(split)) {
+            resetting[split] = false;
+            resetCount--;
+        }
+        layoutSplit(split, pane);
+    }
+
+    /**
+     * Lays out the children of the given Split by the positions of their
+     * Dividers, e.g. after a pane and its Divider have been removed, so the
+     * pane after the gap, or the one before it at the end of the Split,
+     * takes the freed space and every other Divider keeps its position.
+     * Only the children whose bounds changed are laid out below the Split.
+     *
+     * @param split the index of the Split.
+     */
+    public void layoutSplitChildren(int split) {
+        layoutSplit(split, -1);
+    }
+
+    private void layoutSplit(int split, int inserted) {
+        resetTouched();
+        touch(split);
+        boolean row = rowSplit[split];
+        int[] pos = row ? x : y;
+        int[] ext = row ? width : height;
+        int first = firstChild[split];
+        int count = childCount[split];
+        int[] before = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            before[i * 2] = pos[first + i];
+            before[i * 2 + 1] = ext[first + i];
+        }
+        layoutChildren(split, true);
+        for (int i = 0; i < count; i += 2) {
+            int child = first + i;
+            if (kind[child] == SPLIT
+                    && (child == inserted || pos[child] != before[i * 2] || ext[child] != before[i * 2 + 1])) {
+                // a new pane has no Divider positions yet, its Splits are reset by compiling.
+                layoutDescendants(child, true);
+            }
+        }
+    }
+
+    private boolean hasUnplacedDivider(int split) {
+        int last = firstChild[split] + childCount[split];
+        for (int child = firstChild[split] + 1; child < last; child += 2) {
+            if (width[child] == 0 && height[child] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the Divider at the given point by a binary search over the
+     * children edges of each Split on the way down.
+     *
+     * @param px the x coordinate of the point.
+     * @param py the y coordinate of the point.
+     * @return the index of the Divider or -1 if the point is not on a Divider.
+     */
+    public int getDividerAt(int px, int py) {
+        return getDividerAt(px, py, 0);
+    }
+
+    /**
+     * Finds the Divider at the given point, or the nearest Divider within
+     * the given distance of it, by a binary search over the children edges
+     * of each Split on the way down. When the point falls into a pane the
+     * shown Dividers on both sides of the pane are compared with the point,
+     * widened by the distance, so a Divider thinner than the distance is
+     * still hit from anywhere around it. A Divider under the point wins over
+     * a Divider that is only near it.
+     *
+     * @param px   the x coordinate of the point.
+     * @param py   the y coordinate of the point.
+     * @param slop the distance in pixels around a Divider that still hits it.
+     * @return the index of the Divider or -1 if the point is not on or near a Divider.
+     */
+    public int getDividerAt(int px, int py, int slop) {
+        if (size == 0 || px < x[0] || py < y[0] || px >= x[0] + width[0] || py >= y[0] + height[0]) {
+            return -1;
+        }
+        int near = -1;
+        int nearDistance = slop + 1;
+        int node = 0;
+        while (kind[node] == SPLIT) {
+            boolean row = rowSplit[node];
+            int[] pos = row ? x : y;
+            int[] ext = row ? width : height;
+            int position = row ? px : py;
+            int first = firstChild[node];
+            int last = first + childCount[node] - 1;
+            int low = first;
+            int high = last;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (pos[mid] <= position) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (found < 0 || position >= pos[found] + ext[found]) {
+                return near;
+            }
+            if (kind[found] == DIVIDER) {
+                return found;
+            }
+            if (slop > 0) {
+                // collapsed panes and hidden Dividers have no extent, the shown neighbours are skipped to.
+                int before = found - 1;
+                while (before >= first && ext[before] == 0) {
+                    before--;
+                }
+                if (before >= first && kind[before] == DIVIDER && position - (pos[before] + ext[before] - 1) < nearDistance) {
+                    near = before;
+                    nearDistance = position - (pos[before] + ext[before] - 1);
+                }
+                int after = found + 1;
+                while (after <= last && ext[after] == 0) {
+                    after++;
+                }
+                if (after <= last && kind[after] == DIVIDER && pos[after] - position < nearDistance) {
+                    near = after;
+                    nearDistance = pos[after] - position;
+                }
+            }
+            node = found;
+        }
+        return near;
+    }
+
+    private void layoutDescendants(int root, boolean floating) {
+        touch(root);
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            if (kind[node] != SPLIT || collapsed[node]) {
+                continue;
+            }
+            layoutChildren(node, floating);
+            int last = firstChild[node] + childCount[node];
+            for (int child = firstChild[node]; child < last; child += 2) {
+                if (kind[child] == SPLIT) {
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+
+    private void layoutChildren(int split, boolean floating) {
+        if (resetting[split]) {
+            resetting[split] = false;
+            resetCount--;
+            floating = false;
+        }
+        boolean row = rowSplit[split];
+        int[] pos = row ? x : y;
+        int[] ext = row ? width : height;
+        int[] crossPos = row ? y : x;
+        int[] crossExt = row ? height : width;
+        int[] pref = row ? preferredWidth : preferredHeight;
+        int end = pos[split] + ext[split];
+        int cross = crossPos[split];
+        int crossExtent = crossExt[split];
+        int extraSpace = floating ? 0 : ext[split] - pref[split];
+        double totalWeight = 0.0;
+        int childPos = pos[split];
+        int first = firstChild[split];
+        int last = first + childCount[split] - 1;
+        int space = ext[split];
+        int total = 0;
+        boolean shownBefore = false;
+        // the wanted extents, clamped to the limits of every pane.
+        for (int child = first; child <= last; child += 2) {
+            int divider = child < last ? child + 1 : -1;
+            int childExtent;
+            if (collapsed[child]) {
+                childExtent = 0;
+            } else {
+                if (floating && expanding[child]) {
+                    childExtent = restoreSize[child] > 0 ? restoreSize[child] : pref[child];
+                } else if (!floating) {
+                    if (divider >= 0) {
+                        childExtent = (int)(pref[child] + extraSpace * weight[child]);
+                        totalWeight += weight[child];
+                    } else {
+                        childExtent = (int)(pref[child] + extraSpace * (1 - totalWeight));
+                    }
+                } else {
+                    childExtent = (divider >= 0 ? pos[divider] : end) - childPos;
+                }
+                childExtent = Math.max(minimumSize[child], Math.min(maximumSize[child], childExtent));
+                shownBefore = true;
+            }
+            extents[child] = childExtent;
+            total += childExtent;
+            if (divider >= 0) {
+                int dividerExtent = 0;
+                if (shownBefore && !collapsed[divider + 1]) {
+                    dividerExtent = (floating && ext[divider] > 0) ? ext[divider] : pref[divider];
+                }
+                extents[divider] = dividerExtent;
+                space -= dividerExtent;
+                if (floating) {
+                    childPos = pos[divider] + ext[divider];
+                }
+            }
+        }
+        // gives or takes the rest of the space from the last panes that can still change,
+        // the expanded panes keep the size they got back unless no other pane can change.
+        int remaining = space - total;
+        for (int pass = 0; pass < 2 && remaining != 0; pass++) {
+            for (int child = last; child >= first && remaining != 0; child -= 2) {
+                if (collapsed[child] || (pass == 0 && floating && expanding[child])) {
+                    continue;
+                }
+                int change = (remaining > 0)
+                        ? Math.min(remaining, Math.max(0, maximumSize[child] - extents[child]))
+                        : -Math.min(-remaining, Math.max(0, extents[child] - minimumSize[child]));
+                if (change != 0) {
+                    extents[child] += change;
+                    remaining -= change;
+                }
+            }
+        }
+        childPos = pos[split];
+        for (int child = first; child <= last; child += 2) {
+            int divider = child < last ? child + 1 : -1;
+            expanding[child] = false;
+            pos[child] = childPos;
+            ext[child] = extents[child];
+            crossPos[child] = cross;
+            crossExt[child] = crossExtent;
+            touch(child);
+            if (divider >= 0) {
+                pos[divider] = childPos + extents[child];
+                ext[divider] = extents[divider];
+                crossPos[divider] = cross;
+                crossExt[divider] = crossExtent;
+                touch(divider);
+                childPos = pos[divider] + ext[divider];
+            }
+        }
+    }
+
+    private void resetTouched() {
+        touchedCount = 0;
+        touchGeneration++;
+    }
+
+    private void touch(int node) {
+        if (touchStamp[node] != touchGeneration) {
+            touchStamp[node] = touchGeneration;
+            touched[touchedCount++] = node;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2012, Codename One and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Codename One designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Codename One through http://www.codenameone.com/ if you
+ * need additional information or have any questions.
+ */
+
+package com.codename1.components;
+
+/**
+ * Counters of the layout and drag work done by a MultiSplitPane.
+ * Metrics are only collected while an instance is set on the pane with
+ * {@link MultiSplitPane#setMetrics(MultiSplitMetrics)}, without it the
+ * pane only pays a null check. The same instance can be shared between
+ * several panes to collect totals for a whole screen.
+ * All times are in nanoseconds.
+ */
+public class MultiSplitMetrics {
+    private MetricsListener listener;
+    private long layoutPasses;
+    private long incrementalLayouts;
+    private long nodesVisited;
+    private int lastNodesVisited;
+    private long preferredSizeComputations;
+    private long layoutTime;
+    private long lastLayoutTime;
+    private long maxLayoutTime;
+    private long dragEvents;
+    private long dragLayouts;
+    private long hitTests;
+    private long hitTestTime;
+
+    /**
+     * Listener that is notified after every layout the pane performs.
+     */
+    public interface MetricsListener {
+        /**
+         * Called after a full or incremental layout was performed.
+         *
+         * @param metrics the metrics that were updated.
+         */
+        void layoutPerformed(MultiSplitMetrics metrics);
+    }
+
+    /**
+     * Sets the listener that is notified after every layout.
+     *
+     * @param listener the listener or null to remove it.
+     * @return self for call chaining.
+     */
+    public MultiSplitMetrics setListener(MetricsListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @return the number of full layoutContainer passes.
+     */
+    public long getLayoutPasses() {
+        return layoutPasses;
+    }
+
+    /**
+     * @return the number of incremental layouts of a divider siblings.
+     */
+    public long getIncrementalLayouts() {
+        return incrementalLayouts;
+    }
+
+    /**
+     * @return the total number of Nodes laid out by all layouts.
+     */
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    /**
+     * @return the number of Nodes laid out by the last layout.
+     */
+    public int getLastNodesVisited() {
+        return lastNodesVisited;
+    }
+
+    /**
+     * @return the number of Leaf and Divider preferred sizes that had to be
+     *         measured from their Components because the cache was invalid.
+     */
+    public long getPreferredSizeComputations() {
+        return preferredSizeComputations;
+    }
+
+    /**
+     * @return the total time spent in full and incremental layouts.
+     */
+    public long getLayoutTime() {
+        return layoutTime;
+    }
+
+    /**
+     * @return the time spent in the last layout.
+     */
+    public long getLastLayoutTime() {
+        return lastLayoutTime;
+    }
+
+    /**
+     * @return the longest time spent in a single layout.
+     */
+    public long getMaxLayoutTime() {
+        return maxLayoutTime;
+    }
+
+    /**
+     * @return the number of pointer drag events received while a divider was dragged.
+     */
+    public long getDragEvents() {
+        return dragEvents;
+    }
+
+    /**
+     * @return the number of layouts performed because of a divider drag.
+     */
+    public long getDragLayouts() {
+        return dragLayouts;
+    }
+
+    /**
+     * @return the number of divider hit-tests.
+     */
+    public long getHitTests() {
+        return hitTests;
+    }
+
+    /**
+     * @return the total time spent in divider hit-tests.
+     */
+    public long getHitTestTime() {
+        return hitTestTime;
+    }
+
+    /**
+     * Sets all the counters back to zero.
+     */
+    public void reset() {
+        layoutPasses = 0;
+        incrementalLayouts = 0;
+        nodesVisited = 0;
+        lastNodesVisited = 0;
+        preferredSizeComputations = 0;
+        layoutTime = 0;
+        lastLayoutTime = 0;
+        maxLayoutTime = 0;
+        dragEvents = 0;
+        dragLayouts = 0;
+        hitTests = 0;
+        hitTestTime = 0;
+    }
+
+    /**
+     * Returns a copy of the current counters that won't be changed by
+     * later layouts, e.g. to be sent to a telemetry service.
+     *
+     * @return a copy of the metrics without the listener.
+     */
+    public MultiSplitMetrics snapshot() {
+        MultiSplitMetrics copy = new MultiSplitMetrics();
+        copy.layoutPasses = layoutPasses;
+        copy.incrementalLayouts = incrementalLayouts;
+        copy.nodesVisited = nodesVisited;
+        copy.lastNodesVisited = lastNodesVisited;
+        copy.preferredSizeComputations = preferredSizeComputations;
+        copy.layoutTime = layoutTime;
+        copy.lastLayoutTime = lastLayoutTime;
+        copy.maxLayoutTime = maxLayoutTime;
+        copy.dragEvents = dragEvents;
+        copy.dragLayouts = dragLayouts;
+        copy.hitTests = hitTests;
+        copy.hitTestTime = hitTestTime;
+        return copy;
+    }
+
+    void layoutPerformed(boolean incremental, boolean drag, int visited, long time) {
+        if (incremental) {
+            incrementalLayouts++;
+        } else {
+            layoutPasses++;
+        }
+        if (drag) {
+            dragLayouts++;
+        }
+        nodesVisited += visited;
+        lastNodesVisited = visited;
+        layoutTime += time;
+        lastLayoutTime = time;
+        maxLayoutTime = Math.max(maxLayoutTime, time);
+        if (listener != null) {
+            listener.layoutPerformed(this);
+        }
+    }
+
+    void preferredSizeComputed() {
+        preferredSizeComputations++;
+    }
+
+    void dragEventReceived() {
+        dragEvents++;
+    }
+
+    void hitTestPerformed(long time) {
+        hitTests++;
+        hitTestTime += time;
+    }
+}
@@ -23,17 +23,49 @@
 
 package com.codename1.components;
 
+import com.codename1.io.Log;
+import com.codename1.io.Storage;
 import com.codename1.ui.Component;
 import com.codename1.ui.Container;
+import com.codename1.ui.Display;
+import com.codename1.ui.Form;
+import com.codename1.ui.Graphics;
+import com.codename1.ui.Image;
+import com.codename1.ui.Painter;
 import com.codename1.ui.geom.Dimension;
 import com.codename1.ui.geom.Rectangle;
+import com.codename1.ui.util.UITimer;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 public class MultiSplitPane extends Container {
     private boolean continuousDrag = true;
+    private boolean coalesceDrag = false;
+    private boolean snapshotDrag = false;
+    private boolean multiTouchDrag = true;
+    private boolean collapseOnDividerTap = false;
+    private boolean dividerEventsOnly = false;
+    private int dividerTouchSlop = 0;
+    private Painter dividerPainter;
+    private Image dividerImage;
+    private int dividerColor = 0x999999;
+    private final Rectangle dividerRect = new Rectangle();
+    private int updateDepth;
+    private boolean modelChanged;
+    private boolean layoutPending;
+    private final List<Node> collapseChanges = new ArrayList<>();
+    // the Components that were visible until a pane above them was collapsed.
+    private final Set<Component> collapseHidden = new HashSet<>();
+    private boolean ghostDivider = true;
+    private int ghostColor = 0x808080;
+    private int ghostAlpha = 128;
     private Split root;
 
     /**
@@ -53,6 +85,8 @@ public class MultiSplitPane extends Container {
 
     /**
      * set the root of the Nodes tree hierarchy.
+     * The pane is not changed until {@link #build()} is called, which
+     * reconciles the new tree with the Components already in the pane.
      *
      * @param root the root to be set.
      * @see        Split
@@ -77,15 +111,470 @@ public class MultiSplitPane extends Container {
      * Must be used after the root was set and before the MultiSplitPane
      * is showed on the screen.
      *
+     * When called again, e.g. after {@link #setRoot(Split)}, the new tree is
+     * reconciled with the pane by identity: Components that are in both trees
+     * stay in the pane with their bounds and state, only the Components that
+     * were removed or added are removed or added. Nodes of the new tree that
+     * were not laid out yet take the bounds of their Component, so dividers
+     * that are kept stay where they were dragged. Splits with new dividers
+     * are laid out by preferred size and weight on the next layout.
+     *
      * @return self for call chaining.
      */
     public MultiSplitPane build(){
-        checkModel(root);
-        removeAll();
-        addComponentsToContainer(this, root);
+        if (isUpdating()) {
+            modelChanged = true;
+            return this;
+        }
+        checkModelTree(root);
+        reuseComponentBounds(root);
+        syncComponents();
+        ((MultiSplitLayout)getLayout()).compile(root);
         return this;
     }
 
+    /**
+     * Gives the Leaf's and Dividers that were not laid out yet the bounds
+     * of their Component if it is already in the pane.
+     */
+    private void reuseComponentBounds(Node node) {
+        if (node instanceof Split) {
+            for (Node child : ((Split) node).getChildren()) {
+                reuseComponentBounds(child);
+            }
+            return;
+        }
+        Component cmp = (node instanceof Divider) ? ((Divider) node).getChild() : ((Leaf) node).getChild();
+        if (cmp != null && cmp.getParent() == this && node.getWidth() == 0 && node.getHeight() == 0) {
+            node.setBounds(cmp.getX(), cmp.getY(), cmp.getWidth(), cmp.getHeight());
+        }
+    }
+
+    /**
+     * Inserts a new pane and a Divider into a Split of the built model.
+     * Only the given Split and the new pane are validated, only the
+     * Components of the new Nodes are added and only the Split is laid out
+     * again. Once dividers have been dragged the new pane takes its space
+     * from its neighbour and the other dividers stay where they are.
+     * If the index is the number of children of the Split the Divider is
+     * inserted before the pane, otherwise it is inserted after it.
+     * A Leaf is patched into the compiled layout in place, which shifts the
+     * flat arrays of the layout after it but allocates nothing. Inserting a
+     * Split compiles the whole layout again on the next layout pass.
+     *
+     * @param split   the Split to insert into.
+     * @param index   the index of the pane in the children of the Split,
+     *                must be even.
+     * @param pane    the new Leaf or Split.
+     * @param divider the Divider that separates the pane from its neighbour.
+     * @throws InvalidModelException if the Split would become invalid.
+     */
+    public void insertPane(Split split, int index, Node pane, Divider divider) {
+        List<Node> children = split.getChildren();
+        if (index < 0 || index > children.size() || index % 2 != 0) {
+            throw new IllegalArgumentException("Invalid pane index " + index);
+        }
+        if (index == children.size()) {
+            split.insertChildren(index, divider, pane);
+        } else {
+            split.insertChildren(index, pane, divider);
+        }
+        if (isUpdating()) {
+            modelChanged = true;
+            return;
+        }
+        try {
+            checkModel(split);
+            checkModelTree(pane);
+        } catch (InvalidModelException err) {
+            split.removeChildren(index, 2);
+            throw err;
+        }
+        addComponentsToContainer(this, pane);
+        addComponentsToContainer(this, divider);
+        updateCollapsedVisibility(pane);
+        MultiSplitLayout layout = (MultiSplitLayout)getLayout();
+        layout.childrenInserted(root, split, index);
+        layout.layoutInsertedPane(this, pane);
+    }
+
+    /**
+     * Removes a pane and its Divider from the built model.
+     * The Divider after the pane is removed, or the one before it if the
+     * pane is the last one. Only the Components of the removed Nodes are
+     * removed and only the Split of the pane is laid out again. Once dividers
+     * have been dragged the neighbour of the pane takes its space and the
+     * other dividers stay where they are.
+     * A Leaf is patched out of the compiled layout in place, removing a
+     * Split compiles the whole layout again on the next layout pass.
+     *
+     * @param pane the Leaf or Split to remove.
+     * @throws InvalidModelException if the Split would hold less then 3 Nodes.
+     */
+    public void removePane(Node pane) {
+        Split split = pane.getParent();
+        if (split == null || pane instanceof Divider) {
+            throw new IllegalArgumentException("Only a Leaf or a Split inside a Split can be removed");
+        }
+        List<Node> children = split.getChildren();
+        if (!isUpdating() && children.size() - 2 < 3) {
+            throw new InvalidModelException("Split cannot hold less then 3 Nodes", split);
+        }
+        int index = children.indexOf(pane);
+        int first = (index == children.size() - 1) ? index - 1 : index;
+        Node divider = children.get(first == index ? index + 1 : first);
+        split.removeChildren(first, 2);
+        if (isUpdating()) {
+            modelChanged = true;
+            return;
+        }
+        repaintRegion(pane.getX(), pane.getY(), pane.getWidth(), pane.getHeight());
+        removeComponents(pane);
+        removeComponents(divider);
+        MultiSplitLayout layout = (MultiSplitLayout)getLayout();
+        layout.childrenRemoved(root, split, first);
+        layout.layoutRemovedPane(this, split);
+    }
+
+    /**
+     * Replaces a Node of the built model with a new one that takes over
+     * its bounds and position. Only the Components of the two Nodes are
+     * removed and added and only the new Node is laid out.
+     * A Leaf or Divider replaced by one of its kind is patched into the
+     * compiled layout in place, otherwise the whole layout is compiled
+     * again on the next layout pass.
+     *
+     * @param oldNode the Node to replace.
+     * @param newNode the Node to put in its place.
+     * @throws InvalidModelException if the Split would become invalid.
+     */
+    public void replacePane(Node oldNode, Node newNode) {
+        Split split = oldNode.getParent();
+        if (split == null) {
+            throw new IllegalArgumentException("The root can't be replaced, use setRoot instead");
+        }
+        int index = split.getChildren().indexOf(oldNode);
+        split.replaceChild(index, newNode);
+        newNode.setBounds(oldNode.getX(), oldNode.getY(), oldNode.getWidth(), oldNode.getHeight());
+        if (isUpdating()) {
+            modelChanged = true;
+            return;
+        }
+        try {
+            checkModel(split);
+            checkModelTree(newNode);
+        } catch (InvalidModelException err) {
+            split.replaceChild(index, oldNode);
+            throw err;
+        }
+        removeComponents(oldNode);
+        addComponentsToContainer(this, newNode);
+        updateCollapsedVisibility(newNode);
+        MultiSplitLayout layout = (MultiSplitLayout)getLayout();
+        layout.childReplaced(root, oldNode, newNode);
+        layout.layoutSubtree(this, newNode);
+    }
+
+    /**
+     * Collapses a pane so it takes no space in its Split, together with one
+     * of its Dividers. The Components under the pane are hidden, and the
+     * pane is skipped by the layout, the painting and the hit testing until
+     * it is expanded. Only the Split of the pane is laid out again.
+     * Inside a batch the pane is collapsed at the end of it.
+     *
+     * @param pane the Leaf or Split to collapse.
+     * @see   #expandPane(Node)
+     */
+    public void collapsePane(Node pane) {
+        checkCollapsible(pane);
+        if (pane.isCollapsed()) {
+            return;
+        }
+        int size = pane.getParent().isRowSplit() ? pane.getWidth() : pane.getHeight();
+        pane.setCollapsed(true, size);
+        if (isUpdating()) {
+            collapseChanges.add(pane);
+            return;
+        }
+        setSubtreeVisible(pane, false);
+        ((MultiSplitLayout)getLayout()).setCollapsed(this, pane);
+    }
+
+    /**
+     * Expands a collapsed pane. With dragged dividers the pane gets back the
+     * size it had when it was collapsed, otherwise it is sized by its
+     * preferred size and weight. Only the Split of the pane is laid out again.
+     * Inside a batch the pane is expanded at the end of it.
+     *
+     * @param pane the Leaf or Split to expand.
+     * @see   #collapsePane(Node)
+     */
+    public void expandPane(Node pane) {
+        checkCollapsible(pane);
+        if (!pane.isCollapsed()) {
+            return;
+        }
+        pane.setCollapsed(false, pane.getRestoreSize());
+        if (isUpdating()) {
+            collapseChanges.add(pane);
+            return;
+        }
+        if (!isInCollapsed(pane)) {
+            setSubtreeVisible(pane, true);
+        }
+        ((MultiSplitLayout)getLayout()).setCollapsed(this, pane);
+    }
+
+    /**
+     * Applies the panes collapsed or expanded during the batch to the
+     * Components and the layout, which lays them out with the rest of the batch.
+     */
+    private void applyCollapseChanges() {
+        MultiSplitLayout layout = (MultiSplitLayout)getLayout();
+        for (Node pane : collapseChanges) {
+            if (!isInTree(pane)) {
+                continue;
+            }
+            if (pane.isCollapsed()) {
+                setSubtreeVisible(pane, false);
+            } else if (!isInCollapsed(pane)) {
+                setSubtreeVisible(pane, true);
+            }
+            layout.collapseChanged(this, pane);
+        }
+        collapseChanges.clear();
+    }
+
+    private boolean isInTree(Node node) {
+        while (node.getParent() != null) {
+            node = node.getParent();
+        }
+        return node == root;
+    }
+
+    private static void checkCollapsible(Node pane) {
+        if (pane.getParent() == null || pane instanceof Divider) {
+            throw new IllegalArgumentException("Only a Leaf or a Split inside a Split can be collapsed");
+        }
+    }
+
+    /**
+     * Method that returns the property value of the <code>collapseOnDividerTap<code/>
+     *
+     * @return The property value of <code>collapseOnDividerTap</code>.
+     * @see    #setCollapseOnDividerTap(boolean)
+     */
+    public boolean isCollapseOnDividerTap() {
+        return collapseOnDividerTap;
+    }
+
+    /**
+     * If true tapping a divider without dragging it expands the collapsed
+     * panes next to it, or collapses the smaller of its two panes if none
+     * of them is collapsed.
+     *
+     * @param collapseOnDividerTap the new value of the collapseOnDividerTap property.
+     */
+    public void setCollapseOnDividerTap(boolean collapseOnDividerTap) {
+        this.collapseOnDividerTap = collapseOnDividerTap;
+    }
+
+    private void toggleDividerPanes(Divider divider) {
+        List<Node> children = divider.getParent().getChildren();
+        int index = children.indexOf(divider);
+        boolean expanded = false;
+        for (int i = index - 1; i >= 0 && children.get(i).isCollapsed(); i -= 2) {
+            expandPane(children.get(i));
+            expanded = true;
+        }
+        for (int i = index + 1; i < children.size() && children.get(i).isCollapsed(); i += 2) {
+            expandPane(children.get(i));
+            expanded = true;
+        }
+        if (!expanded) {
+            Node prev = children.get(index - 1);
+            Node next = children.get(index + 1);
+            boolean row = divider.getParent().isRowSplit();
+            int prevSize = row ? prev.getWidth() : prev.getHeight();
+            int nextSize = row ? next.getWidth() : next.getHeight();
+            collapsePane(prevSize < nextSize ? prev : next);
+        }
+    }
+
+    /**
+     * Moves a Divider of the laid out pane to the given location and lays
+     * out only the two panes next to it, at the cost of a single drag step.
+     * The location is clamped so the Divider can't pass the outer edges of
+     * its neighbours. Inside a batch the layout is deferred to the end of it.
+     *
+     * @param divider  the Divider to move.
+     * @param location the new location of the Divider in pixels, from the
+     *                 start of its Split along the Split axis.
+     * @return the applied location or -1 if the pane has not been laid out
+     *         yet or the Divider is hidden next to or under a collapsed pane.
+     * @see    #setDividerProportion(Divider, double)
+     */
+    public int setDividerLocation(Divider divider, int location) {
+        Split split = divider.getParent();
+        MultiSplitLayout layout = (MultiSplitLayout)getLayout();
+        if (split.getWidth() <= 0 || split.getHeight() <= 0 || !layout.isDividerShown(this, divider)) {
+            return -1;
+        }
+        int start = split.isRowSplit() ? split.getX() : split.getY();
+        if (isUpdating()) {
+            layoutPending = true;
+        }
+        return layout.setDividerPosition(this, divider, start + location) - start;
+    }
+
+    /**
+     * Moves a Divider of the laid out pane to the given proportion of its
+     * Split, where 0 puts it at the start of the Split and 1 at the end.
+     *
+     * @param divider    the Divider to move.
+     * @param proportion the new proportion between 0 and 1.
+     * @return the applied location in pixels or -1 if the pane has not been
+     *         laid out yet or the Divider is hidden.
+     * @see    #setDividerLocation(Divider, int)
+     */
+    public int setDividerProportion(Divider divider, double proportion) {
+        if (proportion < 0 || proportion > 1) {
+            throw new IllegalArgumentException("Proportion must be between 0 and 1");
+        }
+        Split split = divider.getParent();
+        int space = split.isRowSplit() ? split.getWidth() - divider.getWidth() : split.getHeight() - divider.getHeight();
+        return setDividerLocation(divider, (int)(space * proportion + 0.5));
+    }
+
+    /**
+     * Starts a batch of model changes. Until the matching {@link #endUpdate()}
+     * the pane doesn't validate the model, doesn't add or remove Components
+     * and defers {@link #revalidate()}, so any number of changes to the
+     * children, the weights and the dividers costs a single validation and
+     * layout. Batches can be nested.
+     *
+     * @see #update(Runnable)
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+    /**
+     * Ends a batch of model changes started with {@link #beginUpdate()}.
+     * When the outermost batch ends the whole model is validated once, the
+     * Components are synchronized with the model and the pane is laid out
+     * once if anything asked for it during the batch.
+     *
+     * @throws InvalidModelException if the model is invalid after the changes.
+     */
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            throw new IllegalStateException("endUpdate() without beginUpdate()");
+        }
+        if (--updateDepth > 0) {
+            return;
+        }
+        if (modelChanged) {
+            modelChanged = false;
+            layoutPending = true;
+            checkModelTree(root);
+            reuseComponentBounds(root);
+            syncComponents();
+        }
+        if (!collapseChanges.isEmpty()) {
+            layoutPending = true;
+            applyCollapseChanges();
+        }
+        if (layoutPending) {
+            layoutPending = false;
+            super.revalidate();
+        }
+    }
+
+    /**
+     * Runs the given changes as a single batch.
+     *
+     * @param changes the changes to the model.
+     * @see   #beginUpdate()
+     */
+    public void update(Runnable changes) {
+        beginUpdate();
+        try {
+            changes.run();
+        } finally {
+            endUpdate();
+        }
+    }
+
+    /**
+     * @return true while a batch of model changes is open.
+     */
+    public boolean isUpdating() {
+        return updateDepth > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void revalidate() {
+        if (isUpdating()) {
+            layoutPending = true;
+            return;
+        }
+        super.revalidate();
+    }
+
+    /**
+     * Removes the Components that are no longer in the model and adds the
+     * new ones, leaving the Components that stayed untouched.
+     */
+    private void syncComponents() {
+        List<Component> cmps = new ArrayList<>();
+        addComponentsToList(cmps, root);
+        Set<Component> modelCmps = new HashSet<>(cmps);
+        Set<Component> currentCmps = new HashSet<>();
+        for (int i = getComponentCount() - 1; i >= 0; i--) {
+            Component cmp = getComponentAt(i);
+            if (modelCmps.contains(cmp)) {
+                currentCmps.add(cmp);
+            } else {
+                removeComponent(cmp);
+                collapseHidden.remove(cmp);
+            }
+        }
+        for (Component cmp : cmps) {
+            if (!currentCmps.contains(cmp)) {
+                add(cmp);
+            }
+        }
+        updateCollapsedVisibility(root);
+    }
+
+    /**
+     * Releases the Component of the given LazyLeaf after its release delay
+     * unless the Leaf gets a non-empty size again before that.
+     * Called by the layout when a materialized LazyLeaf is collapsed.
+     */
+    void scheduleRelease(final LazyLeaf leaf) {
+        Form form = getComponentForm();
+        if (leaf.getReleaseDelay() < 0 || form == null) {
+            return;
+        }
+        final int stamp = leaf.nextReleaseStamp();
+        UITimer.timer(leaf.getReleaseDelay(), false, form, () -> {
+            Component child = leaf.getChild();
+            if (stamp != leaf.getReleaseStamp() || child == null || child.getParent() != this
+                    || (leaf.getWidth() > 0 && leaf.getHeight() > 0)) {
+                return;
+            }
+            removeComponent(child);
+            collapseHidden.remove(child);
+            ((MultiSplitLayout)getLayout()).releaseComponent(leaf);
+            leaf.attachChild(null);
+        });
+    }
+
     /**
      * Method that returns the property value of the <code>continuousDrag<code/>
      *
@@ -107,13 +596,340 @@ public class MultiSplitPane extends Container {
         this.continuousDrag = continuousDrag;
     }
 
+    /**
+     * Method that returns the property value of the <code>coalesceDrag<code/>
+     *
+     * @return The property value of <code>coalesceDrag</code>.
+     * @see    #setCoalesceDrag(boolean)
+     */
+    public boolean isCoalesceDrag() {
+        return coalesceDrag;
+    }
+
+    /**
+     * If true pointer drag events only record the latest pointer position
+     * and the divider is moved once per animation frame, so the layout work
+     * is limited to one pass per frame no matter how fast the input arrives.
+     * If false every drag event moves the divider immediately.
+     *
+     * @param coalesceDrag the new value of the coalesceDrag property.
+     */
+    public void setCoalesceDrag(boolean coalesceDrag) {
+        this.coalesceDrag = coalesceDrag;
+    }
+
+    /**
+     * Method that returns the property value of the <code>snapshotDrag<code/>
+     *
+     * @return The property value of <code>snapshotDrag</code>.
+     * @see    #setSnapshotDrag(boolean)
+     */
+    public boolean isSnapshotDrag() {
+        return snapshotDrag;
+    }
+
+    /**
+     * If true the two panes next to a dragged divider are captured into images
+     * when the drag starts, and the images are stretched to the new pane sizes
+     * while the divider moves. The panes are laid out only once when the drag
+     * is finished. Useful when the panes are expensive to lay out or paint.
+     * This mode takes precedence over {@link #setContinuousDrag(boolean)}.
+     *
+     * @param snapshotDrag the new value of the snapshotDrag property.
+     */
+    public void setSnapshotDrag(boolean snapshotDrag) {
+        this.snapshotDrag = snapshotDrag;
+    }
+
+    /**
+     * Method that returns the property value of the <code>multiTouchDrag<code/>
+     *
+     * @return The property value of <code>multiTouchDrag</code>.
+     * @see    #setMultiTouchDrag(boolean)
+     */
+    public boolean isMultiTouchDrag() {
+        return multiTouchDrag;
+    }
+
+    /**
+     * If true every finger that touches a divider drags it, and all the
+     * dividers that moved are laid out together in one pass per event or,
+     * with {@link #setCoalesceDrag(boolean)}, per frame.
+     * Only used with continuous drag and without snapshot drag, otherwise
+     * only the first finger drags. True by default.
+     *
+     * @param multiTouchDrag the new value of the multiTouchDrag property.
+     */
+    public void setMultiTouchDrag(boolean multiTouchDrag) {
+        this.multiTouchDrag = multiTouchDrag;
+    }
+
+    /**
+     * Method that returns the property value of the <code>dividerEventsOnly<code/>
+     *
+     * @return The property value of <code>dividerEventsOnly</code>.
+     * @see    #setDividerEventsOnly(boolean)
+     */
+    public boolean isDividerEventsOnly() {
+        return dividerEventsOnly;
+    }
+
+    /**
+     * If true the pane takes only the pointer events that start on a divider
+     * strip, or within the touch slop of one, and holds on to the drag only
+     * while a divider is dragged. All other events go straight to the pane
+     * under the pointer, so scrollable panes scroll as they would outside of
+     * the MultiSplitPane. False by default, where the pane sees every event.
+     *
+     * @param dividerEventsOnly the new value of the dividerEventsOnly property.
+     * @see   #setDividerTouchSlop(int)
+     */
+    public void setDividerEventsOnly(boolean dividerEventsOnly) {
+        this.dividerEventsOnly = dividerEventsOnly;
+    }
+
+    /**
+     * @return the distance in pixels around a divider that still grabs it.
+     */
+    public int getDividerTouchSlop() {
+        return dividerTouchSlop;
+    }
+
+    /**
+     * Sets how many pixels next to a divider a press still grabs the divider,
+     * which makes thin dividers easier to hit on touch screens. 0 by default.
+     *
+     * @param dividerTouchSlop the distance in pixels.
+     */
+    public void setDividerTouchSlop(int dividerTouchSlop) {
+        this.dividerTouchSlop = dividerTouchSlop;
+    }
+
+    /**
+     * @return the painter of the lightweight dividers or null.
+     * @see    #setDividerPainter(Painter)
+     */
+    public Painter getDividerPainter() {
+        return dividerPainter;
+    }
+
+    /**
+     * Sets the painter that draws every lightweight Divider of the pane,
+     * with the bounds of the Divider as the rectangle.
+     * Without a painter the divider image is drawn, and without an image
+     * the dividers are filled with the divider color.
+     *
+     * @param dividerPainter the shared painter or null.
+     * @see   Divider#Divider(int)
+     */
+    public void setDividerPainter(Painter dividerPainter) {
+        this.dividerPainter = dividerPainter;
+        repaint();
+    }
+
+    /**
+     * @return the image of the lightweight dividers or null.
+     */
+    public Image getDividerImage() {
+        return dividerImage;
+    }
+
+    /**
+     * Sets an image that is drawn stretched into every lightweight Divider
+     * when there is no divider painter.
+     *
+     * @param dividerImage the shared image or null.
+     */
+    public void setDividerImage(Image dividerImage) {
+        this.dividerImage = dividerImage;
+        repaint();
+    }
+
+    /**
+     * @return the RGB color of the lightweight dividers.
+     */
+    public int getDividerColor() {
+        return dividerColor;
+    }
+
+    /**
+     * Sets the color the lightweight dividers are filled with when there is
+     * no divider painter or image.
+     *
+     * @param dividerColor the RGB color.
+     */
+    public void setDividerColor(int dividerColor) {
+        this.dividerColor = dividerColor;
+        repaint();
+    }
+
+    /**
+     * Method that returns the property value of the <code>ghostDivider<code/>
+     *
+     * @return The property value of <code>ghostDivider</code>.
+     * @see    #setGhostDivider(boolean)
+     */
+    public boolean isGhostDivider() {
+        return ghostDivider;
+    }
+
+    /**
+     * If true and the drag is not continuous, a translucent ghost of the
+     * dragged divider is painted over the panes at the dragged position until
+     * the drag is finished. Only the strips the ghost leaves and enters are
+     * repainted.
+     *
+     * @param ghostDivider the new value of the ghostDivider property.
+     * @see   #setContinuousDrag(boolean)
+     */
+    public void setGhostDivider(boolean ghostDivider) {
+        this.ghostDivider = ghostDivider;
+    }
+
+    /**
+     * @return the RGB color of the ghost divider.
+     */
+    public int getGhostColor() {
+        return ghostColor;
+    }
+
+    /**
+     * @param ghostColor the RGB color of the ghost divider.
+     */
+    public void setGhostColor(int ghostColor) {
+        this.ghostColor = ghostColor;
+    }
+
+    /**
+     * @return the alpha of the ghost divider between 0 and 255.
+     */
+    public int getGhostAlpha() {
+        return ghostAlpha;
+    }
+
+    /**
+     * @param ghostAlpha the alpha of the ghost divider between 0 and 255.
+     */
+    public void setGhostAlpha(int ghostAlpha) {
+        this.ghostAlpha = ghostAlpha;
+    }
+
+    /**
+     * @return true if the layout of the pane is computed off the EDT.
+     * @see    #setAsyncLayout(boolean)
+     */
+    public boolean isAsyncLayout() {
+        return ((MultiSplitLayout)getLayout()).isAsyncLayout();
+    }
+
+    /**
+     * If true the full layouts of the pane are computed on a background
+     * thread and the EDT only copies the computed bounds into the Components.
+     * Useful for trees with thousands of Nodes.
+     *
+     * @param asyncLayout true to compute the layout off the EDT.
+     * @see   MultiSplitLayout#setAsyncLayout(boolean)
+     */
+    public void setAsyncLayout(boolean asyncLayout) {
+        ((MultiSplitLayout)getLayout()).setAsyncLayout(asyncLayout);
+    }
+
+    /**
+     * Returns the metrics that collect the layout and drag work of the pane.
+     *
+     * @return the metrics or null if they are not collected.
+     * @see    #setMetrics(MultiSplitMetrics)
+     */
+    public MultiSplitMetrics getMetrics() {
+        return ((MultiSplitLayout)getLayout()).getMetrics();
+    }
+
+    /**
+     * Starts collecting the layout and drag work of the pane into the
+     * given metrics. Collecting is disabled by default and costs only a
+     * null check while disabled.
+     *
+     * @param metrics the metrics to collect into or null to stop collecting.
+     */
+    public void setMetrics(MultiSplitMetrics metrics) {
+        ((MultiSplitLayout)getLayout()).setMetrics(metrics);
+    }
+
+    /**
+     * Saves the current layout of the pane into the Storage: the weights,
+     * the collapsed panes, whether the dividers were dragged and the bounds
+     * of every Node.
+     *
+     * @param storageName the name of the Storage entry.
+     * @return true if the state was saved.
+     * @see    #restoreState(String)
+     */
+    public boolean saveState(String storageName) {
+        MultiSplitState state = ((MultiSplitLayout)getLayout()).captureState();
+        if (state == null) {
+            return false;
+        }
+        try (DataOutputStream out = new DataOutputStream(Storage.getInstance().createOutputStream(storageName))) {
+            state.write(out);
+            return true;
+        } catch (IOException err) {
+            Log.e(err);
+            return false;
+        }
+    }
+
+    /**
+     * Restores a layout saved by {@link #saveState(String)}, including which
+     * panes are collapsed.
+     * Should be called after {@link #build()}. If the pane has the same size
+     * as when the state was saved, the first layout uses the saved bounds as
+     * they are without measuring any Component.
+     *
+     * @param storageName the name of the Storage entry.
+     * @return false if there is no saved state or it was saved from a
+     *         tree with a different structure.
+     */
+    public boolean restoreState(String storageName) {
+        if (!Storage.getInstance().exists(storageName)) {
+            return false;
+        }
+        MultiSplitState state;
+        try (DataInputStream in = new DataInputStream(Storage.getInstance().createInputStream(storageName))) {
+            state = MultiSplitState.read(in);
+        } catch (IOException err) {
+            Log.e(err);
+            return false;
+        }
+        if (!((MultiSplitLayout)getLayout()).restoreState(root, state)) {
+            return false;
+        }
+        updateCollapsedVisibility(root);
+        if (isInitialized()) {
+            revalidate();
+        }
+        return true;
+    }
+
     /**
      * A base class for all the node hierarchy tree model.
      */
     abstract static class Node{
         private Split parent = null;
-        private Rectangle bounds = new Rectangle();
+        private int x;
+        private int y;
+        private int width;
+        private int height;
         private double weight = 0.0;
+        private int minimumSize = 0;
+        private int maximumSize = Integer.MAX_VALUE;
+        private boolean collapsed;
+        private int restoreSize;
+        private int preferredWidth;
+        private int preferredHeight;
+        private boolean preferredSizeValid = false;
+        private int layoutIndex = -1;
+        private int structureVersion;
+        private int modelVersion;
 
         public double getWeight() {
             return weight;
@@ -143,6 +959,80 @@ public class MultiSplitPane extends Container {
                 throw new IllegalArgumentException("Invalid weight");
             }
             this.weight = weight;
+            invalidatePreferredSize();
+            modelChanged();
+            return this;
+        }
+
+        /**
+         * @return the minimum size of the Node along the axis of its parent Split.
+         */
+        public int getMinimumSize() {
+            return minimumSize;
+        }
+
+        /**
+         * Sets the minimum size of the Node along the axis of its parent Split,
+         * i.e. the minimum width in a row Split and the minimum height in a
+         * column Split. The layout and the dragged Dividers never shrink the
+         * Node below it as long as the Split has enough space.
+         *
+         * @param minimumSize the minimum size in pixels, 0 by default.
+         * @return            self for call chaining.
+         */
+        public Node setMinimumSize(int minimumSize) {
+            if (minimumSize < 0 || minimumSize > maximumSize) {
+                throw new IllegalArgumentException("Invalid minimum size");
+            }
+            this.minimumSize = minimumSize;
+            modelChanged();
+            return this;
+        }
+
+        /**
+         * @return true if the Node has been collapsed.
+         * @see    MultiSplitPane#collapsePane(Node)
+         */
+        public boolean isCollapsed() {
+            return collapsed;
+        }
+
+        void setCollapsed(boolean collapsed, int restoreSize) {
+            this.collapsed = collapsed;
+            this.restoreSize = restoreSize;
+            invalidatePreferredSize();
+            modelChanged();
+        }
+
+        /**
+         * @return the size along the axis of the parent Split that the Node
+         *         had before it was collapsed.
+         */
+        int getRestoreSize() {
+            return restoreSize;
+        }
+
+        /**
+         * @return the maximum size of the Node along the axis of its parent Split.
+         */
+        public int getMaximumSize() {
+            return maximumSize;
+        }
+
+        /**
+         * Sets the maximum size of the Node along the axis of its parent Split.
+         * The layout and the dragged Dividers never grow the Node above it
+         * as long as other Nodes of the Split can take the space.
+         *
+         * @param maximumSize the maximum size in pixels, unlimited by default.
+         * @return            self for call chaining.
+         */
+        public Node setMaximumSize(int maximumSize) {
+            if (maximumSize < minimumSize) {
+                throw new IllegalArgumentException("Invalid maximum size");
+            }
+            this.maximumSize = maximumSize;
+            modelChanged();
             return this;
         }
 
@@ -170,7 +1060,7 @@ public class MultiSplitPane extends Container {
          * @return property value of <code>bounds</code>
          */
         public Rectangle getBounds() {
-            return new Rectangle(this.bounds);
+            return new Rectangle(x, y, width, height);
         }
 
         /**
@@ -183,16 +1073,225 @@ public class MultiSplitPane extends Container {
             if (bounds == null) {
                 throw new IllegalArgumentException("null bounds");
             }
-            this.bounds = new Rectangle(bounds);
+            setBounds(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight());
+        }
+
+        /**
+         * Sets the place on the screen and the size of
+         * the Node without allocating a Rectangle.
+         *
+         * @param x      the x position of the node.
+         * @param y      the y position of the node.
+         * @param width  the width of the node.
+         * @param height the height of the node.
+         */
+        public void setBounds(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * @return the x position of the node.
+         */
+        public int getX() {
+            return x;
+        }
+
+        /**
+         * @param x the new x position of the node.
+         */
+        public void setX(int x) {
+            this.x = x;
+        }
+
+        /**
+         * @return the y position of the node.
+         */
+        public int getY() {
+            return y;
+        }
+
+        /**
+         * @param y the new y position of the node.
+         */
+        public void setY(int y) {
+            this.y = y;
+        }
+
+        /**
+         * @return the width of the node.
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @param width the new width of the node.
+         */
+        public void setWidth(int width) {
+            this.width = width;
+        }
+
+        /**
+         * @return the height of the node.
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @param height the new height of the node.
+         */
+        public void setHeight(int height) {
+            this.height = height;
+        }
+
+        /**
+         * Checks if the given point is inside the bounds of the Node.
+         *
+         * @param px the x coordinate of the point.
+         * @param py the y coordinate of the point.
+         * @return true if the point is inside the Node.
+         */
+        public boolean contains(int px, int py) {
+            return px >= x && py >= y && px < x + width && py < y + height;
         }
 
         /**
          * Returns the preferred size of the node dependent
          * on the child/children of the Node.
+         * The size is calculated once and cached until the Node
+         * is invalidated.
+         * @see #invalidatePreferredSize()
          *
          * @return the Preferred size of the node.
          */
-        abstract Dimension getPreferredSize();
+        public Dimension getPreferredSize() {
+            return new Dimension(getPreferredWidth(), getPreferredHeight());
+        }
+
+        /**
+         * Returns the cached preferred width of the node.
+         *
+         * @return the preferred width of the node.
+         */
+        public int getPreferredWidth() {
+            validatePreferredSize();
+            return preferredWidth;
+        }
+
+        /**
+         * Returns the cached preferred height of the node.
+         *
+         * @return the preferred height of the node.
+         */
+        public int getPreferredHeight() {
+            validatePreferredSize();
+            return preferredHeight;
+        }
+
+        /**
+         * Marks the cached preferred size of this Node and all its
+         * parents as invalid so it will be calculated again on the
+         * next request.
+         * Must be called if the preferred size of the wrapped Component
+         * has been changed.
+         */
+        public void invalidatePreferredSize() {
+            // a Node is never valid while one of its children is invalid
+            // so the walk can stop at the first invalid parent.
+            for (Node node = this; node != null && node.preferredSizeValid; node = node.parent) {
+                node.preferredSizeValid = false;
+            }
+        }
+
+        /**
+         * Invalidates the cached preferred size of this Node and
+         * all of its descendants.
+         */
+        void invalidatePreferredSizeTree() {
+            preferredSizeValid = false;
+        }
+
+        /**
+         * @return true if the cached preferred size can be used.
+         */
+        boolean isPreferredSizeValid() {
+            return preferredSizeValid;
+        }
+
+        private void validatePreferredSize() {
+            if (!preferredSizeValid) {
+                Dimension size = calcPreferredSize();
+                preferredWidth = size.getWidth();
+                preferredHeight = size.getHeight();
+                preferredSizeValid = true;
+            }
+        }
+
+        /**
+         * Notifies the root of the tree that the structure of the tree
+         * has been changed so the layout will compile it again.
+         */
+        void structureChanged() {
+            Node node = this;
+            while (node.parent != null) {
+                node = node.parent;
+            }
+            node.structureVersion++;
+            node.modelVersion++;
+            invalidatePreferredSize();
+        }
+
+        /**
+         * Notifies the root of the tree that a weight or a size limit
+         * has been changed so the layout passes it to the engine again and
+         * drops the layouts it cached.
+         */
+        void modelChanged() {
+            Node node = this;
+            while (node.parent != null) {
+                node = node.parent;
+            }
+            node.modelVersion++;
+        }
+
+        /**
+         * @return the number of changes to the structure, the weights and
+         *         the size limits made in the tree when called on the root.
+         */
+        int getModelVersion() {
+            return modelVersion;
+        }
+
+        /**
+         * @return the number of structure changes made in the tree
+         *         when called on the root.
+         */
+        int getStructureVersion() {
+            return structureVersion;
+        }
+
+        /**
+         * @return the index of the Node in the compiled layout.
+         */
+        int getLayoutIndex() {
+            return layoutIndex;
+        }
+
+        void setLayoutIndex(int layoutIndex) {
+            this.layoutIndex = layoutIndex;
+        }
+
+        /**
+         * Calculates the preferred size of the node dependent
+         * on the child/children of the Node.
+         *
+         * @return the Preferred size of the node.
+         */
+        protected abstract Dimension calcPreferredSize();
     }
 
     /**
@@ -234,24 +1333,33 @@ public class MultiSplitPane extends Container {
          * {@inheritDoc}
          */
         @Override
-        public Dimension getPreferredSize(){
-            int totalWidth = 0;
-            int totalHeight = 0;
-            if (rowSplit) {
-                for(Node child : children) {
-                    Dimension size = child.getPreferredSize();
-                    totalWidth += size.getWidth();
-                    totalHeight = Math.max(totalHeight, size.getHeight());
-                }
+        protected Dimension calcPreferredSize(){
+            int childrenSize = children.size();
+            byte[] kinds = new byte[childrenSize];
+            boolean[] collapsed = new boolean[childrenSize];
+            int[] widths = new int[childrenSize + 1];
+            int[] heights = new int[childrenSize + 1];
+            for(int i = 0; i < childrenSize; i++) {
+                Node child = children.get(i);
+                kinds[i] = (child instanceof Divider) ? MultiSplitLayoutEngine.DIVIDER : MultiSplitLayoutEngine.LEAF;
+                collapsed[i] = child.isCollapsed();
+                widths[i] = child.getPreferredWidth();
+                heights[i] = child.getPreferredHeight();
             }
-            else {
-                for(Node child : children) {
-                    Dimension size = child.getPreferredSize();
-                    totalWidth = Math.max(totalWidth, size.getWidth());
-                    totalHeight += size.getHeight();
-                }
+            // the same rule as the layout, so collapsed panes and their Dividers take no space.
+            MultiSplitLayoutEngine.measureSplit(childrenSize, rowSplit, 0, childrenSize - 1, kinds, collapsed, widths, heights);
+            return new Dimension(widths[childrenSize], heights[childrenSize]);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void invalidatePreferredSizeTree() {
+            super.invalidatePreferredSizeTree();
+            for(Node child : children) {
+                child.invalidatePreferredSizeTree();
             }
-            return new Dimension(totalWidth, totalHeight);
         }
 
         /**
@@ -275,46 +1383,187 @@ public class MultiSplitPane extends Container {
             for(Node child : this.children){
                 child.setParent(this);
             }
+            structureChanged();
+        }
+
+        void insertChildren(int index, Node... nodes) {
+            for (int i = 0; i < nodes.length; i++) {
+                children.add(index + i, nodes[i]);
+                nodes[i].setParent(this);
+            }
+            structureChanged();
+        }
+
+        void removeChildren(int index, int count) {
+            for (int i = 0; i < count; i++) {
+                children.remove(index).setParent(null);
+            }
+            structureChanged();
+        }
+
+        void replaceChild(int index, Node node) {
+            children.set(index, node).setParent(null);
+            node.setParent(this);
+            structureChanged();
+        }
+    }
+
+    /**
+     * Node that represent Component.
+     */
+    public static class Leaf extends Node{
+        private Component child;
+
+        /**
+         * Create new instance of Leaf that hold the given Component.
+         * @param child Component to represent.
+         */
+        public Leaf(Component child) {
+            this.child = child;
+        }
+
+        /**
+         *{@inheritDoc}
+         */
+        @Override
+        protected Dimension calcPreferredSize(){
+            return child.getPreferredSize();
+        }
+
+        /**
+         * Method that returns the Component that the Node represent.
+         *
+         * @return the property value of <code>child</code>
+         */
+        public Component getChild() {
+            return child;
+        }
+
+        /**
+         * Sets a new Component that the Leaf will represent.
+         * @param child the new Component
+         */
+        public void setChild(Component child) {
+            this.child = child;
+            structureChanged();
+        }
+
+        /**
+         * Sets the Component without changing the structure of the tree,
+         * used by lazy Leaf's that create and release their Component.
+         */
+        void attachChild(Component child) {
+            this.child = child;
+            invalidatePreferredSize();
         }
     }
 
-    /**
-     * Node that represent Component.
-     */
-    public static class Leaf extends Node{
-        private Component child;
+    /**
+     * Creates the Component of a {@link LazyLeaf} when it is first needed.
+     */
+    public interface ComponentFactory {
+        /**
+         * @return a new Component for the pane.
+         */
+        Component createComponent();
+    }
+
+    /**
+     * Leaf that creates its Component only when the layout first gives it
+     * a non-empty size, e.g. for optional panes that start collapsed or
+     * hidden behind other panes. Until then {@link #getChild()} is null
+     * and the Leaf has the placeholder preferred size.
+     * Optionally the Component is released again after the Leaf has been
+     * collapsed for the release delay, and created again when needed.
+     */
+    public static class LazyLeaf extends Leaf {
+        private final ComponentFactory factory;
+        private int releaseDelay = -1;
+        private int placeholderWidth;
+        private int placeholderHeight;
+        private int releaseStamp;
+
+        /**
+         * Create new instance of LazyLeaf that will create its Component
+         * with the given factory.
+         *
+         * @param factory creates the Component of the Leaf.
+         */
+        public LazyLeaf(ComponentFactory factory) {
+            super(null);
+            if (factory == null) {
+                throw new IllegalArgumentException("Factory can't be null");
+            }
+            this.factory = factory;
+        }
+
+        /**
+         * @return true if the Component has been created and not released.
+         */
+        public boolean isMaterialized() {
+            return getChild() != null;
+        }
 
         /**
-         * Create new instance of Leaf that hold the given Component.
-         * @param child Component to represent.
+         * @return the release delay in milliseconds or -1 if the Component is never released.
          */
-        public Leaf(Component child) {
-            this.child = child;
+        public int getReleaseDelay() {
+            return releaseDelay;
         }
 
         /**
-         *{@inheritDoc}
+         * Sets how long the Leaf must stay collapsed before its Component is
+         * removed from the pane and released, so it can be garbage collected.
+         *
+         * @param releaseDelay the delay in milliseconds or -1 to never release.
+         * @return             self for call chaining.
          */
-        @Override
-        public Dimension getPreferredSize(){
-            return child.getPreferredSize();
+        public LazyLeaf setReleaseDelay(int releaseDelay) {
+            this.releaseDelay = releaseDelay;
+            return this;
         }
 
         /**
-         * Method that returns the Component that the Node represent.
+         * Sets the preferred size of the Leaf while it has no Component.
          *
-         * @return the property value of <code>child</code>
+         * @param width  the placeholder preferred width.
+         * @param height the placeholder preferred height.
+         * @return       self for call chaining.
          */
-        public Component getChild() {
-            return child;
+        public LazyLeaf setPlaceholderSize(int width, int height) {
+            placeholderWidth = width;
+            placeholderHeight = height;
+            invalidatePreferredSize();
+            return this;
         }
 
         /**
-         * Sets a new Component that the Leaf will represent.
-         * @param child the new Component
+         *{@inheritDoc}
          */
-        public void setChild(Component child) {
-            this.child = child;
+        @Override
+        protected Dimension calcPreferredSize(){
+            Component child = getChild();
+            if (child == null) {
+                return new Dimension(placeholderWidth, placeholderHeight);
+            }
+            return child.getPreferredSize();
+        }
+
+        Component materialize() {
+            Component child = getChild();
+            if (child == null) {
+                child = factory.createComponent();
+                attachChild(child);
+            }
+            return child;
+        }
+
+        int nextReleaseStamp() {
+            return ++releaseStamp;
+        }
+
+        int getReleaseStamp() {
+            return releaseStamp;
         }
     }
 
@@ -324,6 +1573,7 @@ public class MultiSplitPane extends Container {
      */
     public static class Divider extends Node{
         private Component child;
+        private int size;
 
         /**
          * Create new instance of Divider Node that hold the given Component
@@ -343,18 +1593,40 @@ public class MultiSplitPane extends Container {
             this.child = child;
         }
 
+        /**
+         * Create new instance of a lightweight Divider that has no Component.
+         * The MultiSplitPane draws it with its divider painter, so dividers
+         * add nothing to the Component hierarchy.
+         * @see MultiSplitPane#setDividerPainter(Painter)
+         *
+         * @param size the thickness of the Divider in pixels.
+         */
+        public Divider(int size) {
+            this.size = size;
+        }
+
         /**
          *{@inheritDoc}
          */
         @Override
-        public Dimension getPreferredSize(){
+        protected Dimension calcPreferredSize(){
+            if (child == null) {
+                return new Dimension(size, size);
+            }
             return child.getPreferredSize();
         }
 
+        /**
+         * @return true if the Divider has no Component and is drawn by the pane.
+         */
+        public boolean isLightweight() {
+            return child == null;
+        }
+
         /**
          * Returns the Component that the Divider represent.
          *
-         * @return the property value of <code>child<code/>
+         * @return the property value of <code>child<code/>, null for a lightweight Divider.
          */
         public Component getChild() {
             return child;
@@ -376,7 +1648,121 @@ public class MultiSplitPane extends Container {
             if (child instanceof Container){
                 child.setIgnorePointerEvents(true);
             }
+            structureChanged();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setShouldCalcPreferredSize(boolean shouldCalcPreferredSize) {
+        super.setShouldCalcPreferredSize(shouldCalcPreferredSize);
+        if (shouldCalcPreferredSize && root != null) {
+            root.invalidatePreferredSizeTree();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        paintLightweightDividers(g);
+        if (prevSnapshot != null) {
+            // the siblings Nodes follow the drag while their Components keep their bounds.
+            Node prev = snapshotPrev;
+            Node next = snapshotNext;
+            int x = getX();
+            int y = getY();
+            g.drawImage(prevSnapshot, x + prev.getX(), y + prev.getY(), prev.getWidth(), prev.getHeight());
+            g.drawImage(nextSnapshot, x + next.getX(), y + next.getY(), next.getWidth(), next.getHeight());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void paintGlass(Graphics g) {
+        super.paintGlass(g);
+        if (isGhostDragging()) {
+            int color = g.getColor();
+            int alpha = g.concatenateAlpha(ghostAlpha);
+            g.setColor(ghostColor);
+            g.fillRect(getX() + dragDivider.getX(), getY() + dragDivider.getY(), dragDivider.getWidth(), dragDivider.getHeight());
+            g.setAlpha(alpha);
+            g.setColor(color);
+        }
+    }
+
+    private void paintLightweightDividers(Graphics g) {
+        Divider[] dividers = ((MultiSplitLayout)getLayout()).getLightweightDividers();
+        if (dividers.length == 0) {
+            return;
+        }
+        int x = getX();
+        int y = getY();
+        int clipX = g.getClipX() - x;
+        int clipY = g.getClipY() - y;
+        int clipX2 = clipX + g.getClipWidth();
+        int clipY2 = clipY + g.getClipHeight();
+        int color = g.getColor();
+        boolean deferred = isDeferredDrag();
+        for (Divider divider : dividers) {
+            int dx = divider.getX();
+            int dy = divider.getY();
+            int dw = divider.getWidth();
+            int dh = divider.getHeight();
+            if (deferred && divider == dragDivider) {
+                // the panes are not laid out until the drag ends, so the divider stays with them.
+                dx = dragStartBounds.getX();
+                dy = dragStartBounds.getY();
+                dw = dragStartBounds.getWidth();
+                dh = dragStartBounds.getHeight();
+            }
+            if (dw <= 0 || dh <= 0 || dx >= clipX2 || dy >= clipY2 || dx + dw <= clipX || dy + dh <= clipY
+                    || isInCollapsed(divider)) {
+                continue;
+            }
+            if (dividerPainter != null) {
+                dividerRect.setX(x + dx);
+                dividerRect.setY(y + dy);
+                dividerRect.setWidth(dw);
+                dividerRect.setHeight(dh);
+                dividerPainter.paint(g, dividerRect);
+            } else if (dividerImage != null) {
+                g.drawImage(dividerImage, x + dx, y + dy, dw, dh);
+            } else {
+                g.setColor(dividerColor);
+                g.fillRect(x + dx, y + dy, dw, dh);
+            }
+        }
+        g.setColor(color);
+    }
+
+    /**
+     * @return true if the Node is under a collapsed pane, where its bounds are stale.
+     */
+    private static boolean isInCollapsed(Node node) {
+        for (Split split = node.getParent(); split != null; split = split.getParent()) {
+            if (split.isCollapsed()) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    private boolean isGhostDragging() {
+        return ghostDivider && isDeferredDrag();
+    }
+
+    /**
+     * @return true while a divider is dragged and the layout is deferred to the end of the drag.
+     */
+    private boolean isDeferredDrag() {
+        return dragDivider != null && !isContinuousDrag() && prevSnapshot == null;
     }
 
     /**
@@ -384,7 +1770,19 @@ public class MultiSplitPane extends Container {
      */
     @Override
     protected boolean isStickyDrag() {
-        return true;
+        return !dividerEventsOnly || dragDivider != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Component getComponentAt(int x, int y) {
+        if (dividerEventsOnly && isVisible() && contains(x, y)
+                && getDividerNear(x - getAbsoluteX(), y - getAbsoluteY()) != null) {
+            return this;
+        }
+        return super.getComponentAt(x, y);
     }
 
     /**
@@ -401,7 +1799,53 @@ public class MultiSplitPane extends Container {
      */
     @Override
     public void pointerDragged(int x, int y) {
-        updateDrag(x, y);
+        if (tapCandidate) {
+            int slop = Display.getInstance().convertToPixels(1);
+            tapCandidate = Math.abs(x - pressX) <= slop && Math.abs(y - pressY) <= slop;
+        }
+        MultiSplitMetrics metrics = getMetrics();
+        if (metrics != null && dragDivider != null) {
+            metrics.dragEventReceived();
+        }
+        if (dragRegistered) {
+            pendingX = x;
+            pendingY = y;
+            pendingTouchCount = 0;
+            dragPending = true;
+        } else {
+            updateDrag(x, y);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void pointerDragged(int[] x, int[] y) {
+        int count = x.length;
+        if (count > 1) {
+            tapCandidate = false;
+        }
+        if (!multiTouchDrag || count < 2 || !isContinuousDrag() || isSnapshotDrag()) {
+            finishTouches(1);
+            super.pointerDragged(x, y);
+            return;
+        }
+        ensureTouchCapacity(count);
+        finishTouches(count);
+        startTouches(x, y, count);
+        MultiSplitMetrics metrics = getMetrics();
+        if (metrics != null && isTouchDragging(count)) {
+            metrics.dragEventReceived();
+        }
+        if (dragRegistered) {
+            System.arraycopy(x, 0, pendingTouchX, 0, count);
+            System.arraycopy(y, 0, pendingTouchY, 0, count);
+            pendingTouchCount = count;
+            dragPending = true;
+        } else {
+            updateTouches(x, y, count);
+        }
     }
 
     /**
@@ -410,92 +1854,378 @@ public class MultiSplitPane extends Container {
     @Override
     public void pointerReleased(int x, int y) {
         super.pointerReleased(x, y);
+        Divider tapped = (collapseOnDividerTap && tapCandidate) ? dragDivider : null;
         finishDrag();
+        if (tapped != null) {
+            toggleDividerPanes(tapped);
+        }
     }
 
-    private Divider getDividerAt(Node root, int x, int y) {
-        if (root instanceof Divider) {
-            Divider divider = (Divider)root;
-            return (divider.getBounds().contains(x, y)) ? divider : null;
-        }
-        else if (root instanceof Split) {
-            Split split = (Split)root;
-            for(Node child : split.getChildren()) {
-                if (child.getBounds().contains(x, y)) {
-                    return getDividerAt(child, x, y);
-                }
-            }
-        }
-        return null;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean animate() {
+        boolean animated = super.animate();
+        flushPendingDrag();
+        return animated;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void deinitialize() {
+        cancelDrag();
+        ((MultiSplitLayout)getLayout()).stopAsyncLayout();
+        super.deinitialize();
     }
 
     private Divider dragDivider = null;
+    private final Rectangle dragStartBounds = new Rectangle();
+    private boolean tapCandidate;
+    private int pressX;
+    private int pressY;
     private int lastX;
     private int lastY;
+    private boolean dragRegistered;
+    private boolean dragPending;
+    private int pendingX;
+    private int pendingY;
+    private Node snapshotPrev;
+    private Node snapshotNext;
+    private Image prevSnapshot;
+    private Image nextSnapshot;
+    private List<Component> snapshotComponents;
+    // drags of the fingers after the first one, by their index in the pointer arrays.
+    private Divider[] touchDividers = new Divider[0];
+    private boolean[] touchStarted = new boolean[0];
+    private int[] touchLastX = new int[0];
+    private int[] touchLastY = new int[0];
+    private int[] pendingTouchX = new int[0];
+    private int[] pendingTouchY = new int[0];
+    private int pendingTouchCount;
+    private Divider[] movedDividers = new Divider[0];
 
     private void startDrag(int x, int y) {
-        Divider divider = getDividerAt(root, x - getAbsoluteX(), y - getAbsoluteY());
+        Divider divider = getDividerNear(x - getAbsoluteX(), y - getAbsoluteY());
         if (divider != null) {
             dragDivider = divider;
+            dragStartBounds.setX(divider.getX());
+            dragStartBounds.setY(divider.getY());
+            dragStartBounds.setWidth(divider.getWidth());
+            dragStartBounds.setHeight(divider.getHeight());
             lastX = x;
             lastY = y;
+            pressX = x;
+            pressY = y;
+            tapCandidate = true;
             ((MultiSplitLayout)getLayout()).setFloatingDividers(true);
+            registerDragAnimation();
+            if (isSnapshotDrag()) {
+                startSnapshotDrag();
+            }
         }
     }
 
-    private void updateDrag(int x, int y) {
+    /**
+     * Finds the divider at the given point, or within the touch slop of it.
+     *
+     * @param x the x coordinate relative to the pane.
+     * @param y the y coordinate relative to the pane.
+     * @return the divider or null.
+     */
+    private Divider getDividerNear(int x, int y) {
+        return ((MultiSplitLayout)getLayout()).getDividerAt(x, y, dividerTouchSlop);
+    }
+
+    private void registerDragAnimation() {
+        Form form = getComponentForm();
+        if (isCoalesceDrag() && !dragRegistered && form != null) {
+            form.registerAnimated(this);
+            dragRegistered = true;
+        }
+    }
+
+    private void ensureTouchCapacity(int count) {
+        if (touchDividers.length < count) {
+            Divider[] dividers = new Divider[count];
+            System.arraycopy(touchDividers, 0, dividers, 0, touchDividers.length);
+            touchDividers = dividers;
+            boolean[] started = new boolean[count];
+            System.arraycopy(touchStarted, 0, started, 0, touchStarted.length);
+            touchStarted = started;
+            int[] lastXs = new int[count];
+            System.arraycopy(touchLastX, 0, lastXs, 0, touchLastX.length);
+            touchLastX = lastXs;
+            int[] lastYs = new int[count];
+            System.arraycopy(touchLastY, 0, lastYs, 0, touchLastY.length);
+            touchLastY = lastYs;
+            pendingTouchX = new int[count];
+            pendingTouchY = new int[count];
+            movedDividers = new Divider[count];
+        }
+    }
+
+    /**
+     * Looks for a divider under every finger that just touched the pane.
+     * A finger that misses is remembered so it is hit tested only once.
+     */
+    private void startTouches(int[] x, int[] y, int count) {
+        MultiSplitLayout layout = (MultiSplitLayout)getLayout();
+        for (int i = 1; i < count; i++) {
+            if (touchStarted[i]) {
+                continue;
+            }
+            touchStarted[i] = true;
+            Divider divider = getDividerNear(x[i] - getAbsoluteX(), y[i] - getAbsoluteY());
+            if (divider != null && !isDragged(divider, count)) {
+                touchDividers[i] = divider;
+                touchLastX[i] = x[i];
+                touchLastY[i] = y[i];
+                layout.setFloatingDividers(true);
+                registerDragAnimation();
+            }
+        }
+    }
+
+    private boolean isDragged(Divider divider, int count) {
+        if (divider == dragDivider) {
+            return true;
+        }
+        for (int i = 1; i < count; i++) {
+            if (touchDividers[i] == divider) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isTouchDragging(int count) {
+        for (int i = 1; i < count; i++) {
+            if (touchDividers[i] != null) {
+                return true;
+            }
+        }
+        return dragDivider != null;
+    }
+
+    /**
+     * Stops the drags of the fingers from the given index on.
+     */
+    private void finishTouches(int count) {
+        for (int i = count; i < touchDividers.length; i++) {
+            touchDividers[i] = null;
+            touchStarted[i] = false;
+        }
+    }
+
+    private void updateTouches(int[] x, int[] y, int count) {
+        int moved = 0;
         if (dragDivider != null) {
-            Rectangle dividerOldBounds = dragDivider.getBounds();
-            Rectangle dividerNewBounds = new Rectangle(dividerOldBounds);
+            if (dragDivider.getParent().isRowSplit()) {
+                lastX = dragBy(dragDivider, lastX, x[0]);
+            } else {
+                lastY = dragBy(dragDivider, lastY, y[0]);
+            }
+            movedDividers[moved++] = dragDivider;
+        }
+        for (int i = 1; i < count; i++) {
+            Divider divider = touchDividers[i];
+            if (divider != null) {
+                if (divider.getParent().isRowSplit()) {
+                    touchLastX[i] = dragBy(divider, touchLastX[i], x[i]);
+                } else {
+                    touchLastY[i] = dragBy(divider, touchLastY[i], y[i]);
+                }
+                movedDividers[moved++] = divider;
+            }
+        }
+        if (moved > 0) {
+            ((MultiSplitLayout)getLayout()).layoutDividerSiblings(this, movedDividers, moved);
+        }
+    }
+
+    /**
+     * Moves the divider by the distance the pointer went from its last
+     * position along the divider axis.
+     *
+     * @return the new last position of the pointer, which stays the same
+     *         if the divider was clamped so it catches up with the pointer.
+     */
+    private int dragBy(Divider divider, int last, int pointer) {
+        int position = (divider.getParent().isRowSplit() ? divider.getX() : divider.getY()) - (last - pointer);
+        if (((MultiSplitLayout)getLayout()).moveDivider(divider, position) == position) {
+            return pointer;
+        }
+        return last;
+    }
+
+    private void flushPendingDrag() {
+        if (dragPending) {
+            dragPending = false;
+            if (pendingTouchCount > 1) {
+                updateTouches(pendingTouchX, pendingTouchY, pendingTouchCount);
+            } else {
+                updateDrag(pendingX, pendingY);
+            }
+        }
+    }
+
+    private void startSnapshotDrag() {
+        MultiSplitLayout layout = (MultiSplitLayout)getLayout();
+        snapshotPrev = layout.getPreviousSibling(dragDivider);
+        snapshotNext = layout.getNextSibling(dragDivider);
+        if (snapshotPrev.getWidth() <= 0 || snapshotPrev.getHeight() <= 0
+                || snapshotNext.getWidth() <= 0 || snapshotNext.getHeight() <= 0) {
+            return;
+        }
+        snapshotComponents = new ArrayList<>();
+        addComponentsToList(snapshotComponents, snapshotPrev);
+        removeHidden(snapshotComponents, 0);
+        int prevCount = snapshotComponents.size();
+        addComponentsToList(snapshotComponents, snapshotNext);
+        removeHidden(snapshotComponents, prevCount);
+        prevSnapshot = createSnapshot(snapshotPrev, snapshotComponents, 0, prevCount);
+        nextSnapshot = createSnapshot(snapshotNext, snapshotComponents, prevCount, snapshotComponents.size());
+        for (Component cmp : snapshotComponents) {
+            cmp.setVisible(false);
+        }
+    }
+
+    /**
+     * Removes the hidden Components from the given index on, e.g. those of
+     * collapsed panes, so the snapshot drag only hides and shows again the
+     * Components that were visible.
+     */
+    private static void removeHidden(List<Component> cmps, int from) {
+        for (int i = cmps.size() - 1; i >= from; i--) {
+            if (!cmps.get(i).isVisible()) {
+                cmps.remove(i);
+            }
+        }
+    }
+
+    private Image createSnapshot(Node node, List<Component> cmps, int from, int to) {
+        Image snapshot = Image.createImage(node.getWidth(), node.getHeight(), 0);
+        Graphics g = snapshot.getGraphics();
+        // paintComponent paints in absolute coordinates.
+        g.translate(-getAbsoluteX() - node.getX(), -getAbsoluteY() - node.getY());
+        for (int i = from; i < to; i++) {
+            cmps.get(i).paintComponent(g, false);
+        }
+        return snapshot;
+    }
+
+    private void finishSnapshotDrag() {
+        for (Component cmp : snapshotComponents) {
+            cmp.setVisible(true);
+        }
+        snapshotComponents = null;
+        prevSnapshot = null;
+        nextSnapshot = null;
+        ((MultiSplitLayout)getLayout()).layoutDividerSiblings(this, dragDivider);
+    }
 
-            int dividerIndex = dragDivider.getParent().getChildren().indexOf(dragDivider);
-            Rectangle prevLeafBounds = dragDivider.getParent().getChildren().get(dividerIndex - 1).getBounds();
-            Rectangle nextLeafBounds = dragDivider.getParent().getChildren().get(dividerIndex + 1).getBounds();
+    private void updateDrag(int x, int y) {
+        if (dragDivider != null) {
+            MultiSplitLayout layout = (MultiSplitLayout)getLayout();
+            int oldX = dragDivider.getX();
+            int oldY = dragDivider.getY();
+            Node prev = snapshotPrev;
+            Node next = snapshotNext;
+            int x1 = 0;
+            int y1 = 0;
+            int x2 = 0;
+            int y2 = 0;
+            if (prevSnapshot != null) {
+                x1 = prev.getX();
+                y1 = prev.getY();
+                x2 = next.getX() + next.getWidth();
+                y2 = next.getY() + next.getHeight();
+            }
             if (dragDivider.getParent().isRowSplit()){
-                int xDragged = lastX - x;
-                int minPosition = prevLeafBounds.getX();
-                int maxPosition = nextLeafBounds.getWidth() + nextLeafBounds.getX() - dragDivider.getBounds().getWidth();
-                int oldDividerX = dragDivider.getBounds().getX();
-                int newDividerX = oldDividerX - xDragged;
-
-                if (newDividerX < minPosition){
-                    newDividerX = minPosition;
-                }else if(newDividerX > maxPosition){
-                    newDividerX = maxPosition;
-                }else{
-                    lastX = x;
-                }
-                dividerNewBounds.setX(newDividerX);
+                lastX = dragBy(dragDivider, lastX, x);
             }else{
-                int yDragged = lastY - y;
-                int minPosition = prevLeafBounds.getY();
-                int maxPosition = nextLeafBounds.getHeight() + nextLeafBounds.getY() - dragDivider.getBounds().getHeight();
-                int oldDividerY = dragDivider.getBounds().getY();
-                int newDividerY = oldDividerY - yDragged;
-
-                if (newDividerY < minPosition){
-                    newDividerY = minPosition;
-                }else if (newDividerY > maxPosition){
-                    newDividerY = maxPosition;
-                }else{
-                    lastY = y;
-                }
-                dividerNewBounds.setY(newDividerY);
+                lastY = dragBy(dragDivider, lastY, y);
             }
-            dragDivider.setBounds(dividerNewBounds);
-            if (isContinuousDrag()) {
-                revalidate();
+            if (prevSnapshot != null) {
+                Component dividerCmp = dragDivider.getChild();
+                if (dividerCmp != null) {
+                    dividerCmp.setX(dragDivider.getX());
+                    dividerCmp.setY(dragDivider.getY());
+                }
+                // the panes pushed by the siblings are laid out and repainted, the siblings are stretched.
+                layout.layoutPushedNodes(this, dragDivider);
+                x1 = Math.min(x1, prev.getX());
+                y1 = Math.min(y1, prev.getY());
+                x2 = Math.max(x2, next.getX() + next.getWidth());
+                y2 = Math.max(y2, next.getY() + next.getHeight());
+                repaintRegion(x1, y1, x2 - x1, y2 - y1);
+            } else if (isContinuousDrag()) {
+                layout.layoutDividerSiblings(this, dragDivider);
+            } else if (isGhostDragging() && (oldX != dragDivider.getX() || oldY != dragDivider.getY())) {
+                repaintRegion(oldX, oldY, dragDivider.getWidth(), dragDivider.getHeight());
+                repaintRegion(dragDivider.getX(), dragDivider.getY(), dragDivider.getWidth(), dragDivider.getHeight());
             }
         }
     }
 
     private void finishDrag() {
+        if (dragRegistered) {
+            dragRegistered = false;
+            Form form = getComponentForm();
+            if (form != null) {
+                form.deregisterAnimated(this);
+            }
+            flushPendingDrag();
+        }
+        finishTouches(1);
+        tapCandidate = false;
         if (dragDivider != null) {
-            dragDivider = null;
-            if (!isContinuousDrag()) {
+            if (prevSnapshot != null) {
+                finishSnapshotDrag();
+            } else if (!isContinuousDrag()) {
                 revalidate();
             }
+            dragDivider = null;
+        }
+    }
+
+    /**
+     * Drops the drag in progress without moving or laying out anything
+     * more, e.g. when the pane is removed from its Form. The Components
+     * hidden by a snapshot drag are shown again.
+     */
+    private void cancelDrag() {
+        if (dragRegistered) {
+            dragRegistered = false;
+            Form form = getComponentForm();
+            if (form != null) {
+                form.deregisterAnimated(this);
+            }
+        }
+        dragPending = false;
+        pendingTouchCount = 0;
+        finishTouches(1);
+        tapCandidate = false;
+        if (snapshotComponents != null) {
+            for (Component cmp : snapshotComponents) {
+                cmp.setVisible(true);
+            }
+            snapshotComponents = null;
         }
+        prevSnapshot = null;
+        nextSnapshot = null;
+        dragDivider = null;
+    }
+
+    /**
+     * Repaints a region given relative to the pane, like the bounds of the
+     * Nodes, since repaint regions are absolute.
+     */
+    private void repaintRegion(int x, int y, int width, int height) {
+        repaint(getAbsoluteX() + x, getAbsoluteY() + y, width, height);
     }
 
     static private void checkModel(Node root) {
@@ -531,17 +2261,104 @@ public class MultiSplitPane extends Container {
         }
     }
 
+    private static void checkModelTree(Node root) {
+        checkModel(root);
+        if (root instanceof Split) {
+            for (Node child : ((Split) root).getChildren()) {
+                checkModelTree(child);
+            }
+        }
+    }
+
+    /**
+     * Hides the visible Components of a subtree and remembers them, or
+     * shows again only the Components that were hidden that way, so the
+     * Components the application hid itself stay hidden.
+     */
+    private void setSubtreeVisible(Node root, boolean visible) {
+        if (root instanceof Split) {
+            for (Node child : ((Split) root).getChildren()) {
+                if (!visible || !child.isCollapsed()) {
+                    setSubtreeVisible(child, visible);
+                }
+            }
+            return;
+        }
+        Component cmp = (root instanceof Divider) ? ((Divider) root).getChild() : ((Leaf) root).getChild();
+        if (cmp == null) {
+            return;
+        }
+        if (!visible) {
+            if (cmp.isVisible()) {
+                cmp.setVisible(false);
+                collapseHidden.add(cmp);
+            }
+        } else if (collapseHidden.remove(cmp)) {
+            cmp.setVisible(true);
+        }
+    }
+
+    /**
+     * Hides the Components of the collapsed panes of a subtree and shows
+     * again those of the panes that are not collapsed anymore.
+     */
+    private void updateCollapsedVisibility(Node root) {
+        if (root.isCollapsed()) {
+            setSubtreeVisible(root, false);
+        } else if (root instanceof Split) {
+            for (Node child : ((Split) root).getChildren()) {
+                updateCollapsedVisibility(child);
+            }
+        } else {
+            setSubtreeVisible(root, true);
+        }
+    }
+
+    private static void addComponentsToList(List<Component> cmps, Node root){
+        if (root instanceof Divider){
+            if (((Divider) root).getChild() != null) {
+                cmps.add(((Divider) root).getChild());
+            }
+        }else if (root instanceof Leaf){
+            if (((Leaf) root).getChild() != null) {
+                cmps.add(((Leaf) root).getChild());
+            }
+        }else{
+            for (Node child : ((Split)root).getChildren()) {
+                addComponentsToList(cmps, child);
+            }
+        }
+    }
+
     private static void addComponentsToContainer(Container cnt, Node root){
         if (root instanceof Divider){
-            cnt.add(((Divider) root).getChild());
+            if (((Divider) root).getChild() != null) {
+                cnt.add(((Divider) root).getChild());
+            }
         }else if (root instanceof Leaf){
-            cnt.add(((Leaf) root).getChild());
+            if (((Leaf) root).getChild() != null) {
+                cnt.add(((Leaf) root).getChild());
+            }
         }else{
             for (Node child : ((Split)root).getChildren())
             addComponentsToContainer(cnt, child);
         }
     }
 
+    private void removeComponents(Node root){
+        if (root instanceof Split){
+            for (Node child : ((Split)root).getChildren()) {
+                removeComponents(child);
+            }
+            return;
+        }
+        Component cmp = (root instanceof Divider) ? ((Divider) root).getChild() : ((Leaf) root).getChild();
+        if (cmp != null) {
+            removeComponent(cmp);
+            collapseHidden.remove(cmp);
+        }
+    }
+
     /**
      * Exception that will be thrown if the model was built incorrect.
      */
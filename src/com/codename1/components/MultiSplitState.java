@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2012, Codename One and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Codename One designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Codename One through http://www.codenameone.com/ if you
+ * need additional information or have any questions.
+ */
+
+package com.codename1.components;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Compact snapshot of a laid out split tree: its structure, the weights,
+ * the collapsed panes, whether the dividers are floating and the bounds
+ * of every Node.
+ * A snapshot can be applied as the first layout of the same tree in a
+ * container of the same size without measuring any Component.
+ *
+ * The binary format starts with a version number so snapshots written
+ * by older versions are rejected instead of being misread.
+ */
+public final class MultiSplitState {
+    private static final int VERSION = 2;
+    // bounds the number of Nodes read from a stream so a corrupt entry can't exhaust the memory.
+    private static final int MAX_SIZE = 1 << 20;
+
+    private final byte[] kinds;
+    private final boolean[] rowSplits;
+    private final int[] childCounts;
+    private final double[] weights;
+    private final boolean[] collapsed;
+    private final int[] restoreSizes;
+    private final boolean floatingDividers;
+    private final int[] bounds;
+
+    private MultiSplitState(int size, boolean floatingDividers) {
+        kinds = new byte[size];
+        rowSplits = new boolean[size];
+        childCounts = new int[size];
+        weights = new double[size];
+        collapsed = new boolean[size];
+        restoreSizes = new int[size];
+        bounds = new int[size * 4];
+        this.floatingDividers = floatingDividers;
+    }
+
+    /**
+     * Captures the current layout of the engine.
+     *
+     * @param engine           the laid out engine.
+     * @param floatingDividers true if the dividers were dragged.
+     * @return the snapshot.
+     */
+    public static MultiSplitState capture(MultiSplitLayoutEngine engine, boolean floatingDividers) {
+        int size = engine.size();
+        MultiSplitState state = new MultiSplitState(size, floatingDividers);
+        for (int node = 0; node < size; node++) {
+            state.kinds[node] = engine.getKind(node);
+            state.rowSplits[node] = engine.isRowSplit(node);
+            state.childCounts[node] = engine.getChildCount(node);
+            state.weights[node] = engine.getWeight(node);
+            state.collapsed[node] = engine.isCollapsed(node);
+            state.restoreSizes[node] = engine.getRestoreSize(node);
+        }
+        engine.captureBounds(state.bounds);
+        return state;
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(DataOutputStream)}.
+     *
+     * @param in the stream to read from.
+     * @return the snapshot.
+     * @throws IOException if the stream can't be read, holds an unknown version,
+     *                     an invalid number of Nodes or an invalid Node.
+     */
+    public static MultiSplitState read(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported split state version " + version);
+        }
+        int size = in.readInt();
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IOException("Invalid split state size " + size);
+        }
+        MultiSplitState state = new MultiSplitState(size, in.readBoolean());
+        for (int node = 0; node < size; node++) {
+            state.kinds[node] = in.readByte();
+            state.rowSplits[node] = in.readBoolean();
+            state.childCounts[node] = in.readInt();
+            state.weights[node] = in.readDouble();
+            state.collapsed[node] = in.readBoolean();
+            state.restoreSizes[node] = in.readInt();
+            byte kind = state.kinds[node];
+            double weight = state.weights[node];
+            if (kind != MultiSplitLayoutEngine.LEAF && kind != MultiSplitLayoutEngine.DIVIDER
+                    && kind != MultiSplitLayoutEngine.SPLIT) {
+                throw new IOException("Invalid kind " + kind + " of split state node " + node);
+            }
+            // the negated check also rejects NaN.
+            if (!(weight >= 0.0 && weight <= 1.0)) {
+                throw new IOException("Invalid weight " + weight + " of split state node " + node);
+            }
+            if (state.childCounts[node] < 0 || state.restoreSizes[node] < 0) {
+                throw new IOException("Invalid child count or restore size of split state node " + node);
+            }
+        }
+        for (int i = 0; i < state.bounds.length; i++) {
+            state.bounds[i] = in.readInt();
+            if (i % 4 >= 2 && state.bounds[i] < 0) {
+                throw new IOException("Invalid extent of split state node " + i / 4);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Writes the snapshot in its binary format.
+     *
+     * @param out the stream to write to.
+     * @throws IOException if the stream can't be written.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeInt(kinds.length);
+        out.writeBoolean(floatingDividers);
+        for (int node = 0; node < kinds.length; node++) {
+            out.writeByte(kinds[node]);
+            out.writeBoolean(rowSplits[node]);
+            out.writeInt(childCounts[node]);
+            out.writeDouble(weights[node]);
+            out.writeBoolean(collapsed[node]);
+            out.writeInt(restoreSizes[node]);
+        }
+        for (int i = 0; i < bounds.length; i++) {
+            out.writeInt(bounds[i]);
+        }
+    }
+
+    /**
+     * Checks if the snapshot was taken from a tree with the same structure.
+     *
+     * @param engine the engine of the tree.
+     * @return true if the snapshot can be applied to the engine.
+     */
+    public boolean matches(MultiSplitLayoutEngine engine) {
+        if (engine.size() != kinds.length) {
+            return false;
+        }
+        for (int node = 0; node < kinds.length; node++) {
+            if (engine.getKind(node) != kinds[node] || engine.getChildCount(node) != childCounts[node]
+                    || (kinds[node] == MultiSplitLayoutEngine.SPLIT && engine.isRowSplit(node) != rowSplits[node])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the snapshot was taken with the root at the given bounds.
+     *
+     * @param x      the x position of the root.
+     * @param y      the y position of the root.
+     * @param width  the width of the root.
+     * @param height the height of the root.
+     * @return true if the bounds of the snapshot can be used as they are.
+     */
+    public boolean matchesRootBounds(int x, int y, int width, int height) {
+        return bounds.length > 0 && bounds[0] == x && bounds[1] == y && bounds[2] == width && bounds[3] == height;
+    }
+
+    /**
+     * @return true if the dividers were dragged when the snapshot was taken.
+     */
+    public boolean isFloatingDividers() {
+        return floatingDividers;
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the weight of the Node when the snapshot was taken.
+     */
+    public double getWeight(int node) {
+        return weights[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return true if the Node was collapsed when the snapshot was taken.
+     */
+    public boolean isCollapsed(int node) {
+        return collapsed[node];
+    }
+
+    /**
+     * @param node the index of the Node.
+     * @return the size the Node had before it was collapsed.
+     */
+    public int getRestoreSize(int node) {
+        return restoreSizes[node];
+    }
+
+    /**
+     * Applies the bounds of the snapshot to the engine without laying it out.
+     *
+     * @param engine an engine the snapshot {@link #matches(MultiSplitLayoutEngine)}.
+     */
+    public void restoreBounds(MultiSplitLayoutEngine engine) {
+        engine.restoreBounds(bounds);
+    }
+
+    /**
+     * Applies the bounds of the snapshot to the engine scaled from the root
+     * bounds of the snapshot to the given root bounds, e.g. after the device
+     * has been rotated. The Dividers keep their thickness, so the engine
+     * should be laid out with floating dividers afterwards to fit the panes
+     * between them.
+     *
+     * @param engine an engine the snapshot {@link #matches(MultiSplitLayoutEngine)}.
+     * @param x      the x position of the root.
+     * @param y      the y position of the root.
+     * @param width  the width of the root.
+     * @param height the height of the root.
+     */
+    public void restoreScaledBounds(MultiSplitLayoutEngine engine, int x, int y, int width, int height) {
+        if (bounds.length == 0 || bounds[2] <= 0 || bounds[3] <= 0) {
+            return;
+        }
+        int[] scaled = new int[bounds.length];
+        for (int node = 0, i = 0; node < kinds.length; node++, i += 4) {
+            int nodeX = scale(bounds[i], bounds[0], bounds[2], x, width);
+            int nodeY = scale(bounds[i + 1], bounds[1], bounds[3], y, height);
+            scaled[i] = nodeX;
+            scaled[i + 1] = nodeY;
+            if (kinds[node] == MultiSplitLayoutEngine.DIVIDER) {
+                scaled[i + 2] = bounds[i + 2];
+                scaled[i + 3] = bounds[i + 3];
+            } else {
+                scaled[i + 2] = scale(bounds[i] + bounds[i + 2], bounds[0], bounds[2], x, width) - nodeX;
+                scaled[i + 3] = scale(bounds[i + 1] + bounds[i + 3], bounds[1], bounds[3], y, height) - nodeY;
+            }
+        }
+        engine.restoreBounds(scaled);
+    }
+
+    private static int scale(int position, int from, int fromExtent, int to, int toExtent) {
+        return to + (int) ((long) (position - from) * toExtent / fromExtent);
+    }
+}